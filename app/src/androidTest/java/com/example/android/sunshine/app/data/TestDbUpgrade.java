@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    Creates weather.db as each earlier version of the app left it, and checks that
+    WeatherDbHelper upgrades it to the same schema a new install gets, keeping what was stored.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbUpgrade.class.getSimpleName();
+
+    // How long upgrading a database with UPGRADE_LOCATIONS locations may take
+    private static final long UPGRADE_BUDGET_MILLIS = 2000;
+    private static final int UPGRADE_LOCATIONS = 1000;
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The tables as each version created them.  These are history: they must not follow the
+    // contract when it changes.
+    private static String getLocationTableSql(int version) {
+        String sql = "CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, coord_long REAL NOT NULL";
+        if (version >= 3) {
+            sql += ", etag TEXT, last_modified TEXT";
+        }
+        if (version >= 4) {
+            sql += ", sync_status INTEGER, sync_time INTEGER";
+        }
+        if (version >= 5) {
+            sql += ", city_id INTEGER";
+        }
+        if (version >= 7) {
+            sql += ", canonical_id INTEGER";
+        }
+        return sql + " );";
+    }
+
+    private static final String WEATHER_TABLE_SQL = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String SYNC_TRACE_TABLE_SQL = "CREATE TABLE sync_trace (" +
+            "_id INTEGER PRIMARY KEY,start_time INTEGER NOT NULL, manual INTEGER NOT NULL, " +
+            "locations INTEGER NOT NULL, requests INTEGER NOT NULL, total_ms INTEGER NOT NULL, " +
+            "connect_ms INTEGER NOT NULL, first_byte_ms INTEGER NOT NULL, " +
+            "download_ms INTEGER NOT NULL, download_bytes INTEGER NOT NULL, " +
+            "parse_ms INTEGER NOT NULL, insert_ms INTEGER NOT NULL, delete_ms INTEGER NOT NULL, " +
+            "widgets_ms INTEGER NOT NULL, muzei_ms INTEGER NOT NULL, " +
+            "notification_ms INTEGER NOT NULL, wearables_ms INTEGER NOT NULL  );";
+
+    private static final String REVISION_TABLE_SQL = "CREATE TABLE forecast_revision (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, revision_time INTEGER NOT NULL, " +
+            "changed_columns INTEGER NOT NULL, changed_values BLOB NOT NULL  );";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // Creates weather.db at the given version, with the forecast of as many locations
+    private void createDatabase(int version, int locations) {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        db.beginTransaction();
+        try {
+            db.execSQL(getLocationTableSql(version));
+            db.execSQL(WEATHER_TABLE_SQL);
+            if (version >= 6) {
+                db.execSQL(SYNC_TRACE_TABLE_SQL);
+            }
+            if (version >= 8) {
+                db.execSQL(REVISION_TABLE_SQL);
+            }
+
+            for (int i = 0; i < locations; i++) {
+                ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+                if (i > 0) {
+                    locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location " + i);
+                }
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+                assertTrue("Error: Failure to insert location " + i, locationId != -1);
+                ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+                for (int day = 0; day < DAYS; day++) {
+                    weatherValues.put(WeatherEntry.COLUMN_DATE,
+                            TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+                }
+            }
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // Every table and index, with its columns as SQLite describes them
+    private static Map<String, List<String>> getSchema(SQLiteDatabase db) {
+        Map<String, List<String>> schema = new TreeMap<String, List<String>>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (objects.moveToNext()) {
+            String pragma = "table".equals(objects.getString(0)) ? "table_info" : "index_info";
+            Cursor columns = db.rawQuery("PRAGMA " + pragma + "(" + objects.getString(1) + ")", null);
+            List<String> description = new ArrayList<String>();
+            while (columns.moveToNext()) {
+                StringBuilder column = new StringBuilder();
+                for (int i = 0; i < columns.getColumnCount(); i++) {
+                    column.append(columns.getString(i)).append(' ');
+                }
+                description.add(column.toString());
+            }
+            columns.close();
+            schema.put(objects.getString(0) + " " + objects.getString(1), description);
+        }
+        objects.close();
+        return schema;
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        SQLiteDatabase newInstall = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(newInstall);
+        Map<String, List<String>> expectedSchema = getSchema(newInstall);
+        newInstall.close();
+
+        for (int version = WeatherDbHelper.FIRST_UPGRADABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            createDatabase(version, 1);
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: upgrading from version " + version +
+                    " didn't give the schema of a new install", expectedSchema, getSchema(db));
+
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: the location stored at version " + version +
+                    " didn't survive the upgrade", cursor, TestUtilities.createNorthPoleLocationValues());
+            cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+            assertEquals("Error: the forecast stored at version " + version +
+                    " didn't survive the upgrade", DAYS, cursor.getCount());
+            cursor.close();
+            helper.close();
+        }
+    }
+
+    public void testUpgradeWithinBudget() {
+        createDatabase(WeatherDbHelper.FIRST_UPGRADABLE_VERSION, UPGRADE_LOCATIONS);
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long upgradeMillis = SystemClock.elapsedRealtime() - start;
+        Log.d(LOG_TAG, "Upgraded " + UPGRADE_LOCATIONS * DAYS + " days of weather from version " +
+                WeatherDbHelper.FIRST_UPGRADABLE_VERSION + " in " + upgradeMillis + " ms");
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(UPGRADE_LOCATIONS * DAYS, cursor.getCount());
+        cursor.close();
+        helper.close();
+        assertTrue("Error: the upgrade took " + upgradeMillis + " ms",
+                upgradeMillis < UPGRADE_BUDGET_MILLIS);
+    }
+}
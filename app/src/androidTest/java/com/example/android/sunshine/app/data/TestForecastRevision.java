@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastRevision extends AndroidTestCase {
+
+    public void testRoundTrip() {
+        ContentValues values = TestUtilities.createWeatherValues(1);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -12.25);
+        int changedColumns = ForecastRevision.getChangedColumns(values);
+        assertEquals("Error: the location and date were counted as tracked columns",
+                (1 << ForecastRevision.TRACKED_COLUMNS.length) - 1, changedColumns);
+
+        ContentValues decoded = ForecastRevision.decode(changedColumns,
+                ForecastRevision.encode(changedColumns, values));
+        assertEquals(ForecastRevision.TRACKED_COLUMNS.length, decoded.size());
+        for (String column : ForecastRevision.TRACKED_COLUMNS) {
+            if (decoded.get(column) instanceof Double) {
+                assertEquals("Error: " + column + " didn't survive the round trip",
+                        values.getAsDouble(column), decoded.getAsDouble(column), 0.005);
+            } else {
+                assertEquals("Error: " + column + " didn't survive the round trip",
+                        values.getAsString(column), decoded.getAsString(column));
+            }
+        }
+    }
+
+    public void testOnlyChangedColumnsArePacked() {
+        ContentValues changedValues = new ContentValues();
+        changedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 21.5);
+        changedValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        int changedColumns = ForecastRevision.getChangedColumns(changedValues);
+        byte[] packed = ForecastRevision.encode(changedColumns, changedValues);
+        // A varint each: 800 and 2150, zigzagged, take two bytes
+        assertEquals(4, packed.length);
+
+        ContentValues decoded = ForecastRevision.decode(changedColumns, packed);
+        assertEquals(2, decoded.size());
+        assertEquals(800, (int) decoded.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals(21.5, decoded.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+    }
+
+    public void testTruncatedRevision() {
+        ContentValues changedValues = new ContentValues();
+        changedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        int changedColumns = ForecastRevision.getChangedColumns(changedValues);
+        byte[] packed = ForecastRevision.encode(changedColumns, changedValues);
+        byte[] truncated = new byte[packed.length - 1];
+        System.arraycopy(packed, 0, truncated, 0, truncated.length);
+        try {
+            ForecastRevision.decode(changedColumns, truncated);
+            fail("Error: a truncated revision was decoded");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
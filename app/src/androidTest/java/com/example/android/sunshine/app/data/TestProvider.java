@@ -18,6 +18,7 @@ package com.example.android.sunshine.app.data;
 import android.content.ComponentName;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -30,6 +31,14 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -61,6 +70,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.RevisionEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -393,6 +407,202 @@ public class TestProvider extends AndroidTestCase {
                 weatherCursor, weatherValues);
     }
 
+    // A location setting that resolved to a city already stored shares its weather, and is
+    // still answered by its own setting
+    public void testLocationAliasSharesWeather() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        String alias = "North Pole, AK";
+        ContentValues aliasValues = TestUtilities.createNorthPoleLocationValues();
+        aliasValues.put(LocationEntry.COLUMN_LOCATION_SETTING, alias);
+        aliasValues.put(LocationEntry.COLUMN_CANONICAL_ID, locationRowId);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, aliasValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(alias, TestUtilities.TEST_DATE),
+                new String[]{WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        assertEquals("Error: the alias didn't find the weather it shares", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(alias, cursor.getString(1));
+        cursor.close();
+
+        // Each setting only ever finds its weather once
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    // Returns the location's canonical id, or -1 if it holds its own weather
+    private long getCanonicalId(long locationRowId) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CANONICAL_ID},
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}, null);
+        try {
+            assertTrue("Error: location " + locationRowId + " not found", cursor.moveToFirst());
+            return cursor.isNull(0) ? -1 : cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertLocation(String locationSetting, Long cityId) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        if (cityId != null) {
+            locationValues.put(LocationEntry.COLUMN_CITY_ID, cityId);
+        }
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    // A location inserted with the city id of one already stored shares its weather
+    public void testInsertJoinsSameCity() {
+        long cityId = 5861897;
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION, cityId);
+        long aliasRowId = insertLocation("North Pole, AK", cityId);
+        long otherRowId = insertLocation("Fairbanks", 5861898L);
+
+        assertEquals(-1, getCanonicalId(locationRowId));
+        assertEquals("Error: the same city wasn't shared",
+                locationRowId, getCanonicalId(aliasRowId));
+        assertEquals("Error: another city was shared", -1, getCanonicalId(otherRowId));
+    }
+
+    // A location that only learns its city id later joins the location already holding the
+    // city's weather, along with whatever shared its own
+    public void testUpdateCityIdJoinsSameCity() {
+        long cityId = 5861897;
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION, cityId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        String alias = "North Pole, AK";
+        long aliasRowId = insertLocation(alias, null);
+        ContentValues aliasWeather = TestUtilities.createWeatherValues(aliasRowId);
+        aliasWeather.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 1000 * 60 * 60 * 24);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, aliasWeather);
+        ContentValues followerValues = TestUtilities.createNorthPoleLocationValues();
+        followerValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705-0001");
+        followerValues.put(LocationEntry.COLUMN_CANONICAL_ID, aliasRowId);
+        long followerRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, followerValues));
+        assertEquals(-1, getCanonicalId(aliasRowId));
+
+        ContentValues cityIdValues = new ContentValues();
+        cityIdValues.put(LocationEntry.COLUMN_CITY_ID, cityId);
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI,
+                cityIdValues, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(aliasRowId)}));
+
+        assertEquals("Error: the location wasn't re-pointed", locationRowId,
+                getCanonicalId(aliasRowId));
+        assertEquals("Error: a location sharing its weather was left behind", locationRowId,
+                getCanonicalId(followerRowId));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(alias), null, null, null, null);
+        assertEquals("Error: the alias didn't find the weather it shares", 1, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationId(aliasRowId), null, null, null, null);
+        assertEquals("Error: the alias's own weather was kept", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Settings of the same city inserted at once end up with a single one holding the weather
+    public void testConcurrentInsertsShareCity() throws Exception {
+        final long cityId = 5861897;
+        final int settings = 4;
+        for (int round = 0; round < 5; round++) {
+            final CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(settings);
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            for (int i = 0; i < settings; i++) {
+                final String setting = "North Pole " + round + "-" + i;
+                results.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        start.await();
+                        return insertLocation(setting, cityId);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Long> result : results) {
+                result.get();
+            }
+            executor.shutdown();
+
+            Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                    new String[]{LocationEntry._ID},
+                    LocationEntry.COLUMN_CITY_ID + " = ? AND " +
+                            LocationEntry.COLUMN_CANONICAL_ID + " IS NULL",
+                    new String[]{Long.toString(cityId)}, null);
+            assertEquals("Error: more than one location holds the city's weather",
+                    1, cursor.getCount());
+            cursor.close();
+            deleteAllRecordsFromProvider();
+        }
+    }
+
+    public void testQueryByLocationId() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationIdWithStartDate(locationRowId, TestUtilities.TEST_DATE),
+                null, null, null, null);
+        TestUtilities.validateCursor("testQueryByLocationId.  Error validating the weather from a date.",
+                cursor, weatherValues);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationIdWithDate(locationRowId, TestUtilities.TEST_DATE),
+                null, null, null, null);
+        TestUtilities.validateCursor("testQueryByLocationId.  Error validating the weather of a day.",
+                cursor, weatherValues);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationId(locationRowId + 1), null, null, null, null);
+        assertEquals("Error: another location's weather was returned", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testLocationSettingLookup() {
+        Uri settingUri = LocationEntry.buildLocationSettingUri(TestUtilities.TEST_LOCATION);
+        Cursor cursor = mContext.getContentResolver().query(settingUri, null, null, null, null);
+        assertEquals("Error: a location that isn't stored was found", 0, cursor.getCount());
+        cursor.close();
+
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        cursor = mContext.getContentResolver().query(settingUri,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_ID}, null, null, null);
+        assertTrue("Error: the location just stored wasn't found", cursor.moveToFirst());
+        assertEquals(locationRowId, cursor.getLong(0));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+
+        // Writing one of the columns it remembers makes the provider look the location up again
+        ContentValues cityIdValues = new ContentValues();
+        cityIdValues.put(LocationEntry.COLUMN_CITY_ID, 5880054);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, cityIdValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        cursor = mContext.getContentResolver().query(settingUri,
+                new String[]{LocationEntry.COLUMN_CITY_ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: a stale city id was returned", 5880054, cursor.getLong(0));
+        cursor.close();
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(settingUri, null, null, null, null);
+        assertEquals("Error: a deleted location was found", 0, cursor.getCount());
+        cursor.close();
+    }
+
     // Make sure we can still delete after adding/updating stuff
     //
     // Student: Uncomment this test after you have completed writing the delete functionality
@@ -512,4 +722,106 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    private static long[] queryWeatherIds(Cursor cursor) {
+        long[] ids = new long[cursor.getCount()];
+        int idIndex = cursor.getColumnIndex(WeatherEntry._ID);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(idIndex);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    public void testBulkInsertUpdatesInPlace() throws InterruptedException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        long[] ids = queryWeatherIds(mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC"));
+
+        // The same forecast again: nothing to write and nobody to tell
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int changedCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: an identical forecast was written again", 0, changedCount);
+        Thread.sleep(500);
+        assertFalse("Error: an identical forecast notified observers", weatherObserver.mContentChanged);
+
+        // One day changes, and another is new
+        ContentValues[] updatedValues = createBulkInsertWeatherValues(locationRowId);
+        updatedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        ContentValues newDay = new ContentValues(updatedValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE,
+                newDay.getAsLong(WeatherEntry.COLUMN_DATE) + 1000 * 60 * 60 * 24);
+        ContentValues[] nextValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT + 1];
+        System.arraycopy(updatedValues, 0, nextValues, 0, BULK_INSERT_RECORDS_TO_INSERT);
+        nextValues[BULK_INSERT_RECORDS_TO_INSERT] = newDay;
+
+        changedCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, nextValues);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: only the changed and the new day should be written", 2, changedCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testBulkInsertUpdatesInPlace.  Error validating " +
+                    "WeatherEntry " + i, cursor, nextValues[i]);
+        }
+        cursor.moveToPosition(-1);
+        long[] updatedIds = queryWeatherIds(cursor);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Error: the _id of an existing day changed", ids[i], updatedIds[i]);
+        }
+    }
+
+    private static Cursor queryRevisions(Context context) {
+        return context.getContentResolver().query(WeatherContract.RevisionEntry.CONTENT_URI,
+                null, null, null, WeatherContract.RevisionEntry._ID + " ASC");
+    }
+
+    public void testBulkInsertLogsRevisions() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        // A new day is logged whole
+        Cursor cursor = queryRevisions(mContext);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        ContentValues revision = ForecastRevision.decode(
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.RevisionEntry.COLUMN_CHANGED_COLUMNS)),
+                cursor.getBlob(cursor.getColumnIndex(WeatherContract.RevisionEntry.COLUMN_CHANGED_VALUES)));
+        assertEquals(ForecastRevision.TRACKED_COLUMNS.length, revision.size());
+        assertEquals("Asteroids", revision.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(321, (int) revision.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals(75.0, revision.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        cursor.close();
+
+        // The same forecast again adds nothing, a changed day only what changed
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        cursor = queryRevisions(mContext);
+        assertEquals("Error: an identical forecast was logged",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        ContentValues[] updatedValues = createBulkInsertWeatherValues(locationRowId);
+        updatedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, updatedValues);
+        cursor = queryRevisions(mContext);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, cursor.getCount());
+        cursor.moveToLast();
+        assertEquals((long) updatedValues[3].getAsLong(WeatherEntry.COLUMN_DATE),
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.RevisionEntry.COLUMN_DATE)));
+        revision = ForecastRevision.decode(
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.RevisionEntry.COLUMN_CHANGED_COLUMNS)),
+                cursor.getBlob(cursor.getColumnIndex(WeatherContract.RevisionEntry.COLUMN_CHANGED_VALUES)));
+        assertEquals("Error: more than the changed column was logged", 1, revision.size());
+        assertEquals(99.5, revision.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        cursor.close();
+    }
 }
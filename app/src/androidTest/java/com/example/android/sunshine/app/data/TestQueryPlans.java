@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider's queries are answered through the indexes WeatherDbHelper
+    creates, as the number of locations stored grows, and logs how long they take.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int QUERY_RUNS = 50;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // Stores the forecast of as many locations, each with a city of its own
+    private void insertLocations(int locations) {
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < locations; i++) {
+                ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+                locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location " + i);
+                locationValues.put(LocationEntry.COLUMN_CITY_ID, i);
+                long locationId = mDb.insert(LocationEntry.TABLE_NAME, null, locationValues);
+                ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+                for (int day = 0; day < DAYS; day++) {
+                    weatherValues.put(WeatherEntry.COLUMN_DATE,
+                            TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    mDb.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private String explain(String sql, String[] args) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        StringBuilder plan = new StringBuilder();
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailIndex)).append("; ");
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    // Older versions of SQLite say "SCAN TABLE weather", newer ones "SCAN weather"
+    private static void assertNoScan(String plan, String table) {
+        assertFalse("Error: " + table + " is scanned whole: " + plan,
+                plan.matches(".*SCAN (TABLE )?" + table + "\\b.*"));
+    }
+
+    private static void assertUsesIndex(String plan, String index) {
+        assertTrue("Error: " + index + " isn't used: " + plan, plan.contains(index));
+    }
+
+    private long timeQuery(String sql, String[] args) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < QUERY_RUNS; i++) {
+            Cursor cursor = mDb.rawQuery(sql, args);
+            cursor.getCount();
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private void checkQueryPlans(int locations) {
+        insertLocations(locations);
+        String setting = "location " + (locations - 1);
+        String startDate = Long.toString(TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+
+        // The forecast list, from today on
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingWithStartDateSelection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC", null);
+        String[] args = new String[]{setting, startDate};
+        String plan = explain(sql, args);
+        assertNoScan(plan, LocationEntry.TABLE_NAME);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        Log.d(LOG_TAG, locations + " locations, from a date: " + timeQuery(sql, args) +
+                " ms for " + QUERY_RUNS + " queries");
+
+        // All of a location's weather
+        sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingSelection, null, null, null, null);
+        args = new String[]{setting};
+        plan = explain(sql, args);
+        assertNoScan(plan, LocationEntry.TABLE_NAME);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        Log.d(LOG_TAG, locations + " locations, all days: " + timeQuery(sql, args) +
+                " ms for " + QUERY_RUNS + " queries");
+
+        // A single day, the detail view.  Either index will do.
+        sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        args = new String[]{setting, startDate};
+        plan = explain(sql, args);
+        assertNoScan(plan, LocationEntry.TABLE_NAME);
+        assertNoScan(plan, WeatherEntry.TABLE_NAME);
+        Log.d(LOG_TAG, locations + " locations, one day: " + timeQuery(sql, args) +
+                " ms for " + QUERY_RUNS + " queries");
+
+        // What WeatherWriter reads before writing a location's forecast
+        plan = explain("SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{"1"});
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+
+        // The sync deleting the days gone by
+        plan = explain("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{startDate});
+        assertNoScan(plan, WeatherEntry.TABLE_NAME);
+
+        // The sync looking for a location already stored for the same city
+        plan = explain("SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                " WHERE " + LocationEntry.COLUMN_CITY_ID + " = ? AND " +
+                LocationEntry.COLUMN_CANONICAL_ID + " IS NULL", new String[]{"0"});
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_LOCATION_CITY_ID);
+    }
+
+    public void testOneLocation() {
+        checkQueryPlans(1);
+    }
+
+    public void testHundredLocations() {
+        checkQueryPlans(100);
+    }
+
+    public void testThousandLocations() {
+        checkQueryPlans(1000);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Measures how long the forecast takes to read while the sync writes, under each storage
+    profile.  The latencies are logged, the test only fails if the readers didn't get through.
+ */
+public class TestStorageProfile extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestStorageProfile.class.getSimpleName();
+
+    private static final int LOCATIONS = 20;
+    private static final int DAYS = 14;
+    private static final int READERS = 3;
+    private static final long RUN_MILLIS = 2000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static ContentValues[] createForecast(long locationId, int run) {
+        ContentValues[] forecast = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            forecast[day] = TestUtilities.createWeatherValues(locationId);
+            forecast[day].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            // Every run changes the forecast, so there's something to write
+            forecast[day].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + run % 10);
+        }
+        return forecast;
+    }
+
+    private static long[] insertLocations(SQLiteDatabase db) {
+        long[] locationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location " + i);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+        }
+        return locationIds;
+    }
+
+    private class Writer extends Thread {
+        final WeatherDbHelper mHelper;
+        final long[] mLocationIds;
+        volatile boolean mStopped;
+        int mSyncs;
+
+        Writer(WeatherDbHelper helper, long[] locationIds) {
+            mHelper = helper;
+            mLocationIds = locationIds;
+        }
+
+        @Override
+        public void run() {
+            while (!mStopped) {
+                // One sync: every location's forecast in a single transaction, as the
+                // provider's bulkInsert does it
+                WeatherWriter writer = new WeatherWriter(mHelper.getWritableDatabase(),
+                        mContext.getContentResolver());
+                for (long locationId : mLocationIds) {
+                    writer.write(createForecast(locationId, mSyncs));
+                }
+                writer.commit();
+                mSyncs++;
+            }
+        }
+    }
+
+    private static class Reader extends Thread {
+        final WeatherDbHelper mHelper;
+        final String mSql;
+        final List<Long> mLatencies = new ArrayList<Long>();
+        volatile boolean mStopped;
+
+        Reader(WeatherDbHelper helper, String sql) {
+            mHelper = helper;
+            mSql = sql;
+        }
+
+        @Override
+        public void run() {
+            String[] args = new String[]{"location 0", Long.toString(TestUtilities.TEST_DATE)};
+            while (!mStopped) {
+                long start = SystemClock.elapsedRealtime();
+                Cursor cursor = mHelper.getReadableDatabase().rawQuery(mSql, args);
+                cursor.getCount();
+                cursor.close();
+                mLatencies.add(SystemClock.elapsedRealtime() - start);
+            }
+        }
+    }
+
+    private void benchmark(StorageProfile profile) throws InterruptedException {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, profile);
+        long[] locationIds = insertLocations(helper.getWritableDatabase());
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingWithStartDateSelection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC", null);
+
+        Writer writer = new Writer(helper, locationIds);
+        List<Reader> readers = new ArrayList<Reader>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Reader(helper, sql));
+        }
+        writer.start();
+        for (Reader reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        writer.mStopped = true;
+        writer.join();
+        List<Long> latencies = new ArrayList<Long>();
+        for (Reader reader : readers) {
+            reader.mStopped = true;
+            reader.join();
+            latencies.addAll(reader.mLatencies);
+        }
+        helper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        assertTrue("Error: the writer didn't get through a single sync", writer.mSyncs > 0);
+        assertFalse("Error: the readers didn't get through a single query", latencies.isEmpty());
+        Collections.sort(latencies);
+        Log.d(LOG_TAG, profile + ": " + writer.mSyncs + " syncs, " + latencies.size() +
+                " reads, median " + latencies.get(latencies.size() / 2) +
+                " ms, 95th percentile " + latencies.get(latencies.size() * 95 / 100) +
+                " ms, max " + latencies.get(latencies.size() - 1) + " ms");
+    }
+
+    public void testPlatformDefault() throws InterruptedException {
+        benchmark(StorageProfile.PLATFORM_DEFAULT);
+    }
+
+    public void testConcurrentReads() throws InterruptedException {
+        benchmark(StorageProfile.CONCURRENT_READS);
+    }
+
+    public void testProfileIsApplied() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, StorageProfile.CONCURRENT_READS);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+            cursor.moveToFirst();
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+            cursor.close();
+        }
+        Cursor cursor = db.rawQuery("PRAGMA synchronous", null);
+        cursor.moveToFirst();
+        assertEquals(StorageProfile.SYNCHRONOUS_NORMAL, cursor.getInt(0));
+        cursor.close();
+        helper.close();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncTraceDump extends AndroidTestCase {
+
+    public void testPercentile() {
+        long[] values = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+        }
+        assertEquals(50, SyncTraceDump.percentile(values, 50));
+        assertEquals(95, SyncTraceDump.percentile(values, 95));
+        assertEquals(100, SyncTraceDump.percentile(values, 100));
+
+        assertEquals(7, SyncTraceDump.percentile(new long[]{7}, 50));
+        assertEquals(7, SyncTraceDump.percentile(new long[]{7}, 95));
+        assertEquals(2, SyncTraceDump.percentile(new long[]{1, 2, 3}, 50));
+    }
+}
@@ -62,9 +62,16 @@ public class TestUtilities extends AndroidTestCase {
         Students: Use this to create some default weather values for your database tests.
      */
     static ContentValues createWeatherValues(long locationRowId) {
+        return createWeatherValues(locationRowId, TEST_DATE);
+    }
+
+    /**
+     * The default weather values, for the given day.  Also used by the tests of other packages.
+     */
+    public static ContentValues createWeatherValues(long locationRowId, long date) {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
-        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, TEST_DATE);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
@@ -82,9 +89,17 @@ public class TestUtilities extends AndroidTestCase {
         LocationEntry part of the WeatherContract.
      */
     static ContentValues createNorthPoleLocationValues() {
+        return createNorthPoleLocationValues(TEST_LOCATION);
+    }
+
+    /**
+     * The North Pole, under the given location setting.  Also used by the tests of other
+     * packages.
+     */
+    public static ContentValues createNorthPoleLocationValues(String locationSetting) {
         // Create a new map of values, where column names are the keys
         ContentValues testValues = new ContentValues();
-        testValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        testValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
         testValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
         testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
         testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
@@ -42,4 +42,22 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testBuildWeatherLocationId() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(42, TEST_WEATHER_DATE);
+        assertEquals(42, WeatherContract.WeatherEntry.getLocationIdFromUri(uri));
+        assertEquals(WeatherContract.normalizeDate(TEST_WEATHER_DATE),
+                WeatherContract.WeatherEntry.getDateFromUri(uri));
+
+        uri = WeatherContract.WeatherEntry.buildWeatherLocationIdWithStartDate(42, TEST_WEATHER_DATE);
+        assertEquals(42, WeatherContract.WeatherEntry.getLocationIdFromUri(uri));
+        assertEquals(WeatherContract.normalizeDate(TEST_WEATHER_DATE),
+                WeatherContract.WeatherEntry.getStartDateFromUri(uri));
+    }
+
+    public void testBuildLocationSetting() {
+        Uri uri = WeatherContract.LocationEntry.buildLocationSettingUri(TEST_WEATHER_LOCATION);
+        assertEquals("Error: the location setting didn't survive the round trip",
+                TEST_WEATHER_LOCATION, WeatherContract.LocationEntry.getLocationSettingFromUri(uri));
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Measures how many new weather rows a second WeatherWriter stores, against inserting the
+    same rows one SQLiteDatabase#insert at a time.  The rates are logged, the test only checks
+    that every row was stored.
+ */
+public class TestWeatherWriterBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherWriterBenchmark.class.getSimpleName();
+
+    // Days a location's forecast holds, as a sync fetches them
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // A forecast of DAYS days for as many locations as it takes to make up the rows
+    private ContentValues[] createRows(int rows) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        ContentValues[] values = new ContentValues[rows];
+        long locationId = -1;
+        for (int i = 0; i < rows; i++) {
+            if (i % DAYS == 0) {
+                ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+                locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location " + i / DAYS);
+                locationId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+            }
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (i % DAYS) * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 60 + i % 30);
+        }
+        return values;
+    }
+
+    private void deleteWeather() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(WeatherContract.RevisionEntry.TABLE_NAME, null, null);
+    }
+
+    private long countWeather() {
+        return DatabaseUtils.queryNumEntries(mHelper.getReadableDatabase(), WeatherEntry.TABLE_NAME);
+    }
+
+    private void benchmark(int rows) {
+        ContentValues[] values = createRows(rows);
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                db.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long insertMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, countWeather());
+        deleteWeather();
+
+        start = SystemClock.elapsedRealtime();
+        WeatherWriter writer = new WeatherWriter(db, mContext.getContentResolver());
+        try {
+            writer.write(values);
+            assertEquals(rows, writer.commit());
+        } finally {
+            writer.abort();
+        }
+        long writerMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, countWeather());
+
+        Log.d(LOG_TAG, rows + " rows: SQLiteDatabase#insert " + getRowsPerSecond(rows, insertMillis) +
+                " rows/s, WeatherWriter " + getRowsPerSecond(rows, writerMillis) +
+                " rows/s, revisions included");
+    }
+
+    private static long getRowsPerSecond(int rows, long millis) {
+        return rows * 1000L / Math.max(1, millis);
+    }
+
+    public void testOneForecast() {
+        benchmark(DAYS);
+    }
+
+    public void testThousandRows() {
+        benchmark(1000);
+    }
+
+    public void testHundredThousandRows() {
+        benchmark(100000);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface standing in for OpenWeatherMap in
+ * tests.  Every request gets the same forecast body, gzip encoded when the client asks for
+ * it, and connections are kept alive, unless told otherwise, so that tests can tell whether
+ * the client reuses them.
+ */
+class FakeForecastServer {
+
+    private final ServerSocket mServerSocket;
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final List<String> mRequestLines = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile byte[] mBody;
+    private volatile int mResponseCode = 200;
+    private volatile long mResponseDelayMillis;
+    private volatile boolean mKeepAlive = true;
+
+    FakeForecastServer(String body) throws IOException {
+        setBody(body);
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "FakeForecastServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    URL getUrl(String path) throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    void setBody(String body) throws IOException {
+        mBody = body.getBytes("UTF-8");
+    }
+
+    void setResponseCode(int responseCode) {
+        mResponseCode = responseCode;
+    }
+
+    /**
+     * Holds every response back for the given time, to exercise the client's read timeout.
+     */
+    void setResponseDelay(long millis) {
+        mResponseDelayMillis = millis;
+    }
+
+    /**
+     * Whether connections are kept alive after a response, or closed, leaving the client to
+     * open a new connection for every request.
+     */
+    void setKeepAlive(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the request lines received so far, e.g "GET /data/2.5/forecast/daily?... HTTP/1.1"
+     */
+    List<String> getRequestLines() {
+        synchronized (mRequestLines) {
+            return new ArrayList<String>(mRequestLines);
+        }
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                mSockets.add(socket);
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                // Closed by shutdown()
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                if (requestLine.length() == 0) {
+                    continue;
+                }
+                mRequestCount.incrementAndGet();
+                mRequestLines.add(requestLine);
+
+                boolean gzip = false;
+                String header;
+                while ((header = in.readLine()) != null && header.length() > 0) {
+                    if (header.toLowerCase().startsWith("accept-encoding:")
+                            && header.toLowerCase().contains("gzip")) {
+                        gzip = true;
+                    }
+                }
+
+                if (mResponseDelayMillis > 0) {
+                    Thread.sleep(mResponseDelayMillis);
+                }
+
+                boolean keepAlive = mKeepAlive;
+                byte[] body = gzip ? gzip(mBody) : mBody;
+                StringBuilder head = new StringBuilder()
+                        .append("HTTP/1.1 ").append(mResponseCode).append(" Fake\r\n")
+                        .append("Content-Type: application/json; charset=utf-8\r\n")
+                        .append("Content-Length: ").append(body.length).append("\r\n")
+                        .append("Connection: ").append(keepAlive ? "keep-alive" : "close")
+                        .append("\r\n");
+                if (gzip) {
+                    head.append("Content-Encoding: gzip\r\n");
+                }
+                head.append("\r\n");
+                // One write per response, like a real server: a separate write for the body
+                // would sit out the client's delayed ACK on a reused connection
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                response.write(head.toString().getBytes("US-ASCII"));
+                response.write(body);
+                response.writeTo(out);
+                out.flush();
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away or the server is shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+}
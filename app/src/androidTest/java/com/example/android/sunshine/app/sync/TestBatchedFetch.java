@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares fetching many locations in batches over a connection per batch with the same fetch
+ * opening a connection per location, against a local stand-in for OWM.  Both go through the
+ * same client with the same number of threads, so only the connection sharing differs.
+ */
+public class TestBatchedFetch extends AndroidTestCase {
+    private static final String LOG_TAG = TestBatchedFetch.class.getSimpleName();
+
+    private static final int BATCH_SIZE = 10;
+    private static final int MAX_PARALLELISM = 4;
+
+    private static List<String> locations(int count) {
+        List<String> locations = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(Integer.toString(5375480 + i));
+        }
+        return locations;
+    }
+
+    public void testSplitIntoBatches() {
+        List<List<String>> batches = SunshineSyncAdapter.splitIntoBatches(locations(50), 10, 4);
+        assertEquals(5, batches.size());
+        for (List<String> batch : batches) {
+            assertEquals(10, batch.size());
+        }
+
+        // Few locations are still spread over every worker
+        batches = SunshineSyncAdapter.splitIntoBatches(locations(10), 10, 4);
+        assertEquals(4, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(2, batches.get(3).size());
+
+        batches = SunshineSyncAdapter.splitIntoBatches(locations(1), 10, 4);
+        assertEquals(1, batches.size());
+
+        batches = SunshineSyncAdapter.splitIntoBatches(locations(23), 5, 1);
+        assertEquals(5, batches.size());
+        int total = 0;
+        for (List<String> batch : batches) {
+            assertTrue(batch.size() <= 5);
+            total += batch.size();
+        }
+        assertEquals(23, total);
+    }
+
+    public void testBenchmark() throws Exception {
+        for (int count : new int[]{1, 10, 50}) {
+            List<String> locations = locations(count);
+
+            FakeForecastServer unsharedServer =
+                    new FakeForecastServer(TestForecastJsonParser.createForecastJson(14));
+            long[] unshared;
+            try {
+                unshared = fetchBatched(unsharedServer, locations, false);
+            } finally {
+                unsharedServer.shutdown();
+            }
+
+            FakeForecastServer sharedServer =
+                    new FakeForecastServer(TestForecastJsonParser.createForecastJson(14));
+            long[] shared;
+            try {
+                shared = fetchBatched(sharedServer, locations, true);
+            } finally {
+                sharedServer.shutdown();
+            }
+
+            Log.i(LOG_TAG, count + " locations, one connection each: " + unshared[0] +
+                    " requests, " + unshared[1] + " connections, " + unshared[2] + " bytes, " +
+                    unshared[3] + " ms");
+            Log.i(LOG_TAG, count + " locations, one connection per batch: " + shared[0] +
+                    " requests, " + shared[1] + " connections, " + shared[2] + " bytes, " +
+                    shared[3] + " ms");
+
+            assertEquals(count, unshared[0]);
+            assertEquals(count, shared[0]);
+            assertEquals(count, unshared[1]);
+            assertTrue("Error: batches did not share their connection",
+                    shared[1] <= SunshineSyncAdapter.splitIntoBatches(
+                            locations, BATCH_SIZE, MAX_PARALLELISM).size());
+            assertEquals("Error: sharing connections changed what was downloaded",
+                    unshared[2], shared[2]);
+        }
+    }
+
+    /**
+     * Fetches the locations in batches, the way the sync does.
+     *
+     * @param shareConnections whether the requests of a batch may go over the same connection,
+     *                         or the server closes each connection after one response
+     * @return requests, connections, bytes received and elapsed milliseconds
+     */
+    private long[] fetchBatched(final FakeForecastServer server, List<String> locations,
+                                boolean shareConnections) throws Exception {
+        server.setKeepAlive(shareConnections);
+        final ForecastHttpClient client = new ForecastHttpClient();
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLELISM);
+        final AtomicLong parsedBytes = new AtomicLong();
+
+        long start = System.nanoTime();
+        try {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final List<String> batch :
+                    SunshineSyncAdapter.splitIntoBatches(locations, BATCH_SIZE, MAX_PARALLELISM)) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (String location : batch) {
+                            ForecastHttpClient.Response response =
+                                    client.get(server.getUrl("/forecast?id=" + location), null);
+                            try {
+                                parsedBytes.addAndGet(parse(response.getBody()));
+                            } finally {
+                                response.close();
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(parsedBytes.get(), client.getBytesDecoded());
+        return new long[]{server.getRequestCount(), server.getConnectionCount(),
+                client.getBytesReceived(), elapsed};
+    }
+
+    /**
+     * Parses a forecast the way the sync does.
+     *
+     * @return the number of bytes the forecast took
+     */
+    private static long parse(InputStream in) throws Exception {
+        final CountingStream counting = new CountingStream(in);
+        TestForecastJsonParser.RecordingCallback callback =
+                new TestForecastJsonParser.RecordingCallback();
+        assertEquals(HttpURLConnection.HTTP_OK, new ForecastJsonParser().parse(counting, callback));
+        assertEquals(14, callback.days.size());
+        // Read what the parser left behind, if anything
+        while (counting.read() != -1) {
+        }
+        return counting.count;
+    }
+
+    private static class CountingStream extends FilterInputStream {
+        long count;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+    }
+}
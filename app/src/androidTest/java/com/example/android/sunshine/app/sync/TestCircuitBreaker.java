@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+    private static final long NOW = 1419033600000L;
+
+    private void clearBreaker() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_breaker_failures_key))
+                .remove(mContext.getString(R.string.pref_breaker_trips_key))
+                .remove(mContext.getString(R.string.pref_breaker_retry_at_key))
+                .commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearBreaker();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearBreaker();
+        super.tearDown();
+    }
+
+    private CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, new Random(0));
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest(NOW));
+            breaker.onFailure(NOW);
+        }
+        return breaker;
+    }
+
+    public void testOpensAfterFailuresInARow() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, new Random(0));
+        breaker.onFailure(NOW);
+        breaker.onSuccess();
+        breaker.onFailure(NOW);
+        assertEquals("Error: failures with a success in between opened the breaker",
+                CircuitBreaker.STATE_CLOSED, breaker.getState(NOW));
+
+        breaker = openBreaker();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState(NOW));
+        assertFalse(breaker.allowRequest(NOW + 1));
+        assertTrue(CircuitBreaker.getRetryAt(mContext) > NOW);
+    }
+
+    public void testHalfOpenLetsOneProbeThrough() {
+        CircuitBreaker breaker = openBreaker();
+        long retryAt = CircuitBreaker.getRetryAt(mContext);
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState(retryAt));
+        assertTrue(breaker.allowRequest(retryAt));
+        assertFalse("Error: a second request went out with the probe",
+                breaker.allowRequest(retryAt));
+
+        // A probe given up on lets the next one through
+        breaker.onAbandoned();
+        assertTrue(breaker.allowRequest(retryAt));
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(retryAt));
+        assertEquals(0, CircuitBreaker.getRetryAt(mContext));
+    }
+
+    public void testFailedProbeBacksOffLonger() {
+        CircuitBreaker breaker = openBreaker();
+        long firstRetryAt = CircuitBreaker.getRetryAt(mContext);
+        long firstBackoff = firstRetryAt - NOW;
+
+        assertTrue(breaker.allowRequest(firstRetryAt));
+        breaker.onFailure(firstRetryAt);
+        long secondBackoff = CircuitBreaker.getRetryAt(mContext) - firstRetryAt;
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState(firstRetryAt));
+        assertTrue("Error: the backoff didn't grow", secondBackoff > firstBackoff);
+
+        // A request that went out before the breaker opened doesn't make it back off more
+        breaker.onFailure(firstRetryAt + 1);
+        assertEquals(firstRetryAt + secondBackoff, CircuitBreaker.getRetryAt(mContext));
+    }
+
+    public void testStateOutlivesTheBreaker() {
+        openBreaker();
+        CircuitBreaker breaker = new CircuitBreaker(mContext, new Random(0));
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState(NOW));
+    }
+
+    public void testBackoff() {
+        long base = CircuitBreaker.BASE_BACKOFF_MILLIS;
+        assertEquals(base / 2, CircuitBreaker.getBackoffMillis(1, 0));
+        assertEquals(base, CircuitBreaker.getBackoffMillis(1, 1));
+        assertEquals(base * 2, CircuitBreaker.getBackoffMillis(2, 1));
+        assertEquals(base * 4, CircuitBreaker.getBackoffMillis(3, 1));
+        assertEquals(CircuitBreaker.MAX_BACKOFF_MILLIS, CircuitBreaker.getBackoffMillis(100, 1));
+        assertEquals(CircuitBreaker.MAX_BACKOFF_MILLIS / 2,
+                CircuitBreaker.getBackoffMillis(100, 0));
+    }
+}
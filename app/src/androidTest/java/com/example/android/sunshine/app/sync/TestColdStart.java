@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestColdStart extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+    private static final String OTHER_LOCATION = "94043";
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues(locationSetting));
+        return ContentUris.parseId(locationUri);
+    }
+
+    /**
+     * Records the phases as they run, with the outcome of today's fetch chosen up front.
+     */
+    private static class RecordingPhases implements SunshineSyncAdapter.SyncPhases<String> {
+        final List<String> fetches = new ArrayList<String>();
+        final boolean todayAnswered;
+
+        RecordingPhases(boolean todayAnswered) {
+            this.todayAnswered = todayAnswered;
+        }
+
+        @Override
+        public boolean fetchToday() {
+            fetches.add("today");
+            return todayAnswered;
+        }
+
+        @Override
+        public String fetchAll() {
+            fetches.add("all");
+            return "all";
+        }
+    }
+
+    public void testTodayFetchedFirstOnColdStart() {
+        RecordingPhases phases = new RecordingPhases(true);
+        assertEquals("all", SunshineSyncAdapter.fetchInPhases(true, phases));
+        assertEquals(Arrays.asList("today", "all"), phases.fetches);
+    }
+
+    public void testOnlyFullFetchOtherwise() {
+        RecordingPhases phases = new RecordingPhases(true);
+        assertEquals("all", SunshineSyncAdapter.fetchInPhases(false, phases));
+        assertEquals(Arrays.asList("all"), phases.fetches);
+    }
+
+    public void testFailedTodaySkipsFullFetch() {
+        RecordingPhases phases = new RecordingPhases(false);
+        assertNull(SunshineSyncAdapter.fetchInPhases(true, phases));
+        assertEquals("Error: the full forecast was fetched after today failed",
+                Arrays.asList("today"), phases.fetches);
+    }
+
+    public void testColdStartOnlyWithoutWeather() {
+        assertTrue(SunshineSyncAdapter.isColdStart(mContext));
+
+        // A location without weather yet doesn't make a cold start once anything is stored
+        long locationRowId = insertLocation(TEST_LOCATION);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId,
+                        WeatherContract.normalizeDate(System.currentTimeMillis())));
+        insertLocation(OTHER_LOCATION);
+        assertFalse(SunshineSyncAdapter.isColdStart(mContext));
+    }
+}
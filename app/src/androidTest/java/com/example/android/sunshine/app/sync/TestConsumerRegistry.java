@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class TestConsumerRegistry extends AndroidTestCase {
+    private static final long NOW = 1419033600000L;
+    private static final long HOUR = 1000L * 60 * 60;
+
+    public void testRecentDemandsCount() {
+        Map<String, Long> demands = new HashMap<String, Long>();
+        demands.put(ConsumerRegistry.CONSUMER_APP, NOW - HOUR);
+        demands.put(ConsumerRegistry.CONSUMER_WEAR, NOW - ConsumerRegistry.DORMANT_AFTER_MILLIS);
+        Set<String> active = ConsumerRegistry.getActiveConsumers(
+                Collections.<String>emptySet(), demands, NOW);
+        assertEquals(Collections.singleton(ConsumerRegistry.CONSUMER_APP), active);
+
+        // Nobody has looked in days
+        demands.put(ConsumerRegistry.CONSUMER_APP, NOW - 4 * 24 * HOUR);
+        assertTrue(ConsumerRegistry.getActiveConsumers(
+                Collections.<String>emptySet(), demands, NOW).isEmpty());
+    }
+
+    public void testPresentConsumersCountWheneverTheyAsked() {
+        Set<String> present = new HashSet<String>();
+        present.add(ConsumerRegistry.CONSUMER_TODAY_WIDGET);
+        present.add(ConsumerRegistry.CONSUMER_MUZEI);
+        Set<String> active = ConsumerRegistry.getActiveConsumers(present,
+                new HashMap<String, Long>(), NOW);
+        assertEquals(present, active);
+    }
+
+    public void testDemands() {
+        Map<String, Long> demands = new HashMap<String, Long>();
+        demands.put(ConsumerRegistry.CONSUMER_APP, NOW);
+        demands.put("odd \"consumer\"", 1L);
+
+        Map<String, Long> parsed =
+                ConsumerRegistry.parseDemands(ConsumerRegistry.formatDemands(demands));
+        assertEquals(demands, parsed);
+
+        assertTrue(ConsumerRegistry.parseDemands("").isEmpty());
+        assertTrue(ConsumerRegistry.parseDemands("{garbage").isEmpty());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class TestForecastHttpClient extends AndroidTestCase {
+
+    private FakeForecastServer mServer;
+    private String mForecastJson;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mForecastJson = TestForecastJsonParser.createForecastJson(14);
+        mServer = new FakeForecastServer(mForecastJson);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    private String fetch(ForecastHttpClient client, URL url) throws IOException {
+        ForecastHttpClient.Response response = client.get(url, null);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.getResponseCode());
+            return readFully(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testGzipBodyIsDecoded() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient();
+
+        assertEquals(mForecastJson, fetch(client, mServer.getUrl("/forecast")));
+
+        assertEquals(1, client.getRequestCount());
+        assertEquals(mForecastJson.getBytes("UTF-8").length, client.getBytesDecoded());
+        assertTrue("Error: the forecast did not travel compressed",
+                client.getBytesReceived() < client.getBytesDecoded());
+    }
+
+    public void testConnectionIsReused() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(mForecastJson, fetch(client, mServer.getUrl("/forecast?id=" + i)));
+        }
+
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals("Error: consecutive requests did not share a connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testUnreadBodyDoesNotPreventReuse() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient();
+
+        // e.g a 304 or an error that the sync doesn't bother reading
+        client.get(mServer.getUrl("/forecast"), null).close();
+        assertEquals(mForecastJson, fetch(client, mServer.getUrl("/forecast")));
+
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testErrorBodyIsReadable() throws IOException {
+        mServer.setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+        mServer.setBody("{\"cod\":\"404\",\"message\":\"city not found\"}");
+        ForecastHttpClient client = new ForecastHttpClient();
+
+        ForecastHttpClient.Response response = client.get(mServer.getUrl("/forecast"), null);
+        try {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, response.getResponseCode());
+            assertTrue(readFully(response.getBody()).contains("city not found"));
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testReadTimeout() throws IOException {
+        mServer.setResponseDelay(2000);
+        ForecastHttpClient client = new ForecastHttpClient(1000, 200);
+
+        long start = System.currentTimeMillis();
+        try {
+            client.get(mServer.getUrl("/forecast"), null).close();
+            fail("Error: a stalled server should time the request out");
+        } catch (IOException expected) {
+        }
+        assertTrue("Error: the read timeout was not honoured",
+                System.currentTimeMillis() - start < 2000);
+    }
+}
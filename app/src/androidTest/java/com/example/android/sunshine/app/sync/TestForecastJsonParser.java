@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    static final String DAY_JSON =
+            "{\"dt\":1419033600,\"temp\":{\"day\":20.5,\"min\":11.2,\"max\":22.4,\"night\":12.1}," +
+            "\"pressure\":1013.2,\"humidity\":82,\"weather\":[{\"id\":500,\"main\":\"Rain\"," +
+            "\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":4.1,\"deg\":270,\"clouds\":75}";
+
+    static final String CITY_JSON =
+            "{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.0838,\"lat\":37.3861}," +
+            "\"country\":\"US\",\"population\":0}";
+
+    static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder("{\"city\":").append(CITY_JSON)
+                .append(",\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append(DAY_JSON);
+        }
+        return json.append("]}").toString();
+    }
+
+    static class RecordingCallback implements ForecastJsonParser.Callback {
+        long cityId;
+        String cityName;
+        double lat;
+        double lon;
+        final List<ContentValues> days = new ArrayList<ContentValues>();
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            assertTrue("Error: days were delivered before the city", days.isEmpty());
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues weatherValues) {
+            assertEquals("Error: days delivered out of order", days.size(), dayIndex);
+            days.add(weatherValues);
+        }
+    }
+
+    private static InputStream streamOf(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParseForecast() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        int code = new ForecastJsonParser().parse(streamOf(createForecastJson(14)), callback);
+
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        assertEquals(5375480, callback.cityId);
+        assertEquals("Mountain View", callback.cityName);
+        assertEquals(37.3861, callback.lat, 1e-6);
+        assertEquals(-122.0838, callback.lon, 1e-6);
+        assertEquals(14, callback.days.size());
+
+        ContentValues day = callback.days.get(0);
+        assertEquals(22.4, day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), 1e-6);
+        assertEquals(11.2, day.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), 1e-6);
+        assertEquals(1013.2, day.getAsDouble(WeatherEntry.COLUMN_PRESSURE), 1e-6);
+        assertEquals(82, (int) day.getAsInteger(WeatherEntry.COLUMN_HUMIDITY));
+        assertEquals(4.1, day.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED), 1e-6);
+        assertEquals(270.0, day.getAsDouble(WeatherEntry.COLUMN_DEGREES), 1e-6);
+        assertEquals("Rain", day.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(500, (int) day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+    }
+
+    public void testListBeforeCity() throws Exception {
+        String json = "{\"list\":[" + DAY_JSON + "," + DAY_JSON + "],\"city\":" + CITY_JSON + "}";
+        RecordingCallback callback = new RecordingCallback();
+        int code = new ForecastJsonParser().parse(streamOf(json), callback);
+
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        assertEquals("Mountain View", callback.cityName);
+        assertEquals(2, callback.days.size());
+    }
+
+    public void testErrorCodeStopsEarly() throws Exception {
+        // Everything after the "cod" is garbage: the parser must not get that far
+        String json = "{\"cod\":\"404\",\"message\":\"city not found\", this is not json";
+        RecordingCallback callback = new RecordingCallback();
+        int code = new ForecastJsonParser().parse(streamOf(json), callback);
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, code);
+        assertNull(callback.cityName);
+        assertTrue(callback.days.isEmpty());
+    }
+
+    public void testMalformedForecast() throws Exception {
+        String json = "{\"city\":" + CITY_JSON + ",\"list\":[{\"temp\":{\"max\":\"warm\"}}]}";
+        try {
+            new ForecastJsonParser().parse(streamOf(json), new RecordingCallback());
+            fail("Error: a non numeric temperature should not parse");
+        } catch (JSONException expected) {
+        }
+
+        json = "{\"city\":" + CITY_JSON + "}";
+        try {
+            new ForecastJsonParser().parse(streamOf(json), new RecordingCallback());
+            fail("Error: a forecast without a list should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestForecastSource extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastSource.class.getSimpleName();
+
+    /**
+     * Serves fixtures from memory rather than from the assets.
+     */
+    static class MemoryFixtureSource extends FixtureForecastSource {
+        final Map<String, String> fixtures = new HashMap<String, String>();
+        int opened;
+
+        MemoryFixtureSource() {
+            super(null);
+        }
+
+        @Override
+        InputStream openFixture(String name) throws IOException {
+            String fixture = fixtures.get(name);
+            if (fixture == null) {
+                throw new FileNotFoundException(name);
+            }
+            opened++;
+            return new ByteArrayInputStream(fixture.getBytes("UTF-8"));
+        }
+    }
+
+    public void testHttpSourceBuildsOwmQuery() throws Exception {
+        FakeForecastServer server =
+                new FakeForecastServer(TestForecastJsonParser.createForecastJson(14));
+        try {
+            HttpForecastSource source = new HttpForecastSource(new ForecastHttpClient(),
+                    server.getUrl("/data/2.5/forecast/daily?").toString(), "KEY");
+
+            source.fetch("94043", null, 14, null).close();
+            source.fetch("94043", 5375480L, 7, null).close();
+
+            List<String> requestLines = server.getRequestLines();
+            assertEquals(2, requestLines.size());
+            assertTrue(requestLines.get(0), requestLines.get(0).startsWith(
+                    "GET /data/2.5/forecast/daily?q=94043&mode=json&units=metric&cnt=14&APPID=KEY "));
+            assertTrue("Error: a known city was not asked for by id", requestLines.get(1)
+                    .startsWith("GET /data/2.5/forecast/daily?id=5375480&mode=json&units=metric&cnt=7&APPID=KEY "));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testFixtureSourceReplaysRecordedForecasts() throws Exception {
+        MemoryFixtureSource source = new MemoryFixtureSource();
+        source.fixtures.put("94043", TestForecastJsonParser.createForecastJson(14));
+        source.fixtures.put(FixtureForecastSource.DEFAULT_FIXTURE,
+                TestForecastJsonParser.createForecastJson(7));
+
+        assertEquals(14, parse(source.fetch("94043", null, 14, null)));
+        // Unknown locations get the default fixture
+        assertEquals(7, parse(source.fetch("10001", null, 14, null)));
+        assertEquals(7, parse(source.fetch("94043", 5375480L, 14, null)));
+
+        // Fixtures are read once then served from memory
+        assertEquals(14, parse(source.fetch("94043", null, 14, null)));
+        assertEquals(2, source.opened);
+    }
+
+    public void testFixtureSourceWithoutFixture() throws Exception {
+        MemoryFixtureSource source = new MemoryFixtureSource();
+
+        ForecastSource.Response response = source.fetch("94043", null, 14, null);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, response.getResponseCode());
+        response.close();
+    }
+
+    /**
+     * Replays a fixture through the parser as fast as it will go.
+     */
+    public void testParseThroughput() throws Exception {
+        MemoryFixtureSource source = new MemoryFixtureSource();
+        source.fixtures.put(FixtureForecastSource.DEFAULT_FIXTURE,
+                TestForecastJsonParser.createForecastJson(14));
+        final int forecasts = 500;
+
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < forecasts; i++) {
+            ForecastSource.Response response = source.fetch(Integer.toString(i), null, 14, null);
+            assertEquals(14, parse(response));
+            bytes += response.getBytesRead();
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        Log.i(LOG_TAG, forecasts + " forecasts (" + bytes + " bytes) parsed in " +
+                elapsedMillis + " ms, " + (forecasts * 1000L / elapsedMillis) + " forecasts/s");
+    }
+
+    private static int parse(ForecastSource.Response response) throws Exception {
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.getResponseCode());
+            TestForecastJsonParser.RecordingCallback callback =
+                    new TestForecastJsonParser.RecordingCallback();
+            assertEquals(HttpURLConnection.HTTP_OK,
+                    new ForecastJsonParser().parse(response.getBody(), callback));
+            return callback.days.size();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestLocationHistory extends AndroidTestCase {
+    private static final long NOW = 1500000000000L;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    public void testPicksFadeWithAge() {
+        List<LocationHistory.Pick> history = new ArrayList<LocationHistory.Pick>();
+        history.add(new LocationHistory.Pick("94043", NOW - LocationHistory.HALF_LIFE_MILLIS));
+        history.add(new LocationHistory.Pick("10001", NOW));
+        history.add(new LocationHistory.Pick("10001", NOW - 2 * LocationHistory.HALF_LIFE_MILLIS));
+
+        Map<String, Double> scores = LocationHistory.getScores(history, NOW);
+        assertEquals(0.5, scores.get("94043"), 1e-9);
+        assertEquals(1.25, scores.get("10001"), 1e-9);
+    }
+
+    public void testRankPrefersFrequentAndRecentLocations() {
+        List<LocationHistory.Pick> history = new ArrayList<LocationHistory.Pick>();
+        // Picked three times last month
+        for (int i = 0; i < 3; i++) {
+            history.add(new LocationHistory.Pick("London,UK", NOW - (30 + i) * DAY_IN_MILLIS));
+        }
+        // Picked once yesterday
+        history.add(new LocationHistory.Pick("94043", NOW - DAY_IN_MILLIS));
+        // Picked once a month ago
+        history.add(new LocationHistory.Pick("10001", NOW - 30 * DAY_IN_MILLIS));
+
+        List<String> known = Arrays.asList("10001", "Paris", "London,UK", "94043", "Tokyo");
+        Map<String, Double> scores = LocationHistory.getScores(history, NOW);
+
+        assertEquals(Arrays.asList("94043", "London,UK", "10001", "Paris"),
+                LocationHistory.rank(known, scores, 4));
+        // Locations never picked fill what's left of the budget, in the order given
+        assertEquals(Arrays.asList("94043", "London,UK", "10001", "Paris", "Tokyo"),
+                LocationHistory.rank(known, scores, 10));
+        assertEquals(Arrays.asList("94043"), LocationHistory.rank(known, scores, 1));
+        assertTrue(LocationHistory.rank(known, scores, 0).isEmpty());
+    }
+
+    public void testAliasesAreFetchedOnce() {
+        List<LocationHistory.Pick> history = new ArrayList<LocationHistory.Pick>();
+        history.add(new LocationHistory.Pick("Mountain View", NOW - DAY_IN_MILLIS));
+        history.add(new LocationHistory.Pick("London,UK", NOW - 2 * DAY_IN_MILLIS));
+        Map<String, Double> scores = LocationHistory.getScores(history, NOW);
+
+        // By setting, the location holding its weather
+        Map<String, Long> known = new LinkedHashMap<String, Long>();
+        known.put("94043", 1L);
+        known.put("Mountain View", 1L);
+        known.put("London,UK", 2L);
+        known.put("london,uk", 2L);
+        known.put("Paris", 3L);
+        known.put("75001", 3L);
+
+        // The alias picked most stands for the city, the others are left out
+        assertEquals(Arrays.asList("Mountain View", "London,UK", "Paris"),
+                LocationHistory.getPrefetchLocations(known, "Tokyo", scores, 4));
+        // Sharing the preferred location's weather, they're fetched with it
+        assertEquals(Arrays.asList("London,UK", "Paris"),
+                LocationHistory.getPrefetchLocations(known, "94043", scores, 4));
+        assertEquals(Arrays.asList("Mountain View"),
+                LocationHistory.getPrefetchLocations(known, "Tokyo", scores, 1));
+    }
+
+    public void testHistoryRoundTrip() {
+        List<LocationHistory.Pick> history = new ArrayList<LocationHistory.Pick>();
+        history.add(new LocationHistory.Pick("London,UK", NOW));
+        history.add(new LocationHistory.Pick("Saint-Denis:974", NOW + 1));
+
+        List<LocationHistory.Pick> parsed =
+                LocationHistory.parseHistory(LocationHistory.formatHistory(history));
+        assertEquals(2, parsed.size());
+        assertEquals("London,UK", parsed.get(0).locationSetting);
+        assertEquals(NOW, parsed.get(0).time);
+        assertEquals("Saint-Denis:974", parsed.get(1).locationSetting);
+        assertEquals(NOW + 1, parsed.get(1).time);
+
+        assertTrue(LocationHistory.parseHistory("").isEmpty());
+        assertTrue(LocationHistory.parseHistory("not json").isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.ConnectivityManager;
+import android.telephony.TelephonyManager;
+import android.test.AndroidTestCase;
+
+public class TestNetworkPolicy extends AndroidTestCase {
+
+    public void testUnconstrainedNetworkFetchesEverything() {
+        NetworkPolicy policy = new NetworkPolicy(false, false, false);
+        assertFalse(policy.isConstrained());
+        assertEquals(SunshineSyncAdapter.FORECAST_DAYS,
+                policy.getForecastDays(SunshineSyncAdapter.FORECAST_DAYS));
+        assertTrue(policy.allowsArt());
+    }
+
+    public void testConstrainedNetworksHoldBack() {
+        NetworkPolicy[] policies = {
+                new NetworkPolicy(true, false, false),
+                new NetworkPolicy(false, true, false),
+                new NetworkPolicy(false, false, true)};
+        for (NetworkPolicy policy : policies) {
+            assertTrue(policy.toString(), policy.isConstrained());
+            assertEquals(policy.toString(), NetworkPolicy.CONSTRAINED_FORECAST_DAYS,
+                    policy.getForecastDays(SunshineSyncAdapter.FORECAST_DAYS));
+            assertFalse(policy.toString(), policy.allowsArt());
+        }
+        // Never asks for more than it would have anyway
+        assertEquals(1, policies[0].getForecastDays(1));
+    }
+
+    public void testSlowNetworks() {
+        assertTrue(NetworkPolicy.isSlowNetwork(ConnectivityManager.TYPE_MOBILE,
+                TelephonyManager.NETWORK_TYPE_EDGE));
+        assertTrue(NetworkPolicy.isSlowNetwork(ConnectivityManager.TYPE_MOBILE,
+                TelephonyManager.NETWORK_TYPE_GPRS));
+        assertFalse(NetworkPolicy.isSlowNetwork(ConnectivityManager.TYPE_MOBILE,
+                TelephonyManager.NETWORK_TYPE_LTE));
+        assertFalse(NetworkPolicy.isSlowNetwork(ConnectivityManager.TYPE_WIFI,
+                TelephonyManager.NETWORK_TYPE_UNKNOWN));
+    }
+
+    public void testEstimateBytesSaved() {
+        // 3 days took 900 bytes, the 11 others would have taken about 3300
+        assertEquals(3300, NetworkPolicy.estimateBytesSaved(900, 3, 14));
+        assertEquals(0, NetworkPolicy.estimateBytesSaved(4200, 14, 14));
+        assertEquals(0, NetworkPolicy.estimateBytesSaved(0, 0, 14));
+    }
+}
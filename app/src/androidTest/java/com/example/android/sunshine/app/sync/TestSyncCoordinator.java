@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSyncCoordinator extends AndroidTestCase {
+
+    private ExecutorService mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    /**
+     * Work that blocks until released, then returns its result unless it was cancelled.
+     */
+    static class BlockingWork implements SyncCoordinator.Work {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        private final int mResult;
+
+        BlockingWork(int result) {
+            mResult = result;
+        }
+
+        @Override
+        public Integer run(SyncCoordinator.Flight flight) throws Exception {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return flight.isCancelled() ? null : mResult;
+        }
+    }
+
+    private Future<Integer> runAsync(SyncCoordinator coordinator, String locationSetting,
+                                     boolean preferredOnly, SyncCoordinator.Work work) {
+        return runAsync(coordinator, locationSetting, preferredOnly,
+                new SyncCoordinator.Caller(false), work);
+    }
+
+    private Future<Integer> runAsync(final SyncCoordinator coordinator,
+                                     final String locationSetting, final boolean preferredOnly,
+                                     final SyncCoordinator.Caller caller,
+                                     final SyncCoordinator.Work work) {
+        return mExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return coordinator.run(locationSetting, preferredOnly, caller, work);
+            }
+        });
+    }
+
+    private static void waitForJoins(SyncCoordinator coordinator, int joins)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (coordinator.getJoinedCount() < joins && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(joins, coordinator.getJoinedCount());
+    }
+
+    public void testConcurrentSyncsOfALocationShareOneRun() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        BlockingWork first = new BlockingWork(7);
+        BlockingWork late = new BlockingWork(8);
+
+        Future<Integer> firstResult = runAsync(coordinator, "94043", false, first);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        Future<Integer> lateResult = runAsync(coordinator, "94043", true, late);
+        waitForJoins(coordinator, 1);
+        first.release.countDown();
+
+        assertEquals(Integer.valueOf(7), firstResult.get(5, TimeUnit.SECONDS));
+        assertEquals("Error: the late sync did not get the result of the one in flight",
+                Integer.valueOf(7), lateResult.get(5, TimeUnit.SECONDS));
+        assertEquals(1, first.runs.get());
+        assertEquals("Error: the late sync fetched the location again", 0, late.runs.get());
+    }
+
+    public void testOtherLocationsRunSideBySide() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        BlockingWork first = new BlockingWork(1);
+        BlockingWork second = new BlockingWork(2);
+
+        Future<Integer> firstResult = runAsync(coordinator, "94043", false, first);
+        Future<Integer> secondResult = runAsync(coordinator, "10001", false, second);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        assertTrue(second.started.await(5, TimeUnit.SECONDS));
+        first.release.countDown();
+        second.release.countDown();
+
+        assertEquals(Integer.valueOf(1), firstResult.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), secondResult.get(5, TimeUnit.SECONDS));
+        assertEquals(0, coordinator.getJoinedCount());
+    }
+
+    public void testFinishedSyncIsNotReused() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        BlockingWork first = new BlockingWork(1);
+        BlockingWork second = new BlockingWork(2);
+        first.release.countDown();
+        second.release.countDown();
+
+        SyncCoordinator.Caller caller = new SyncCoordinator.Caller(false);
+        assertEquals(Integer.valueOf(1), coordinator.run("94043", true, caller, first));
+        assertEquals(Integer.valueOf(2), coordinator.run("94043", true, caller, second));
+        assertEquals(1, second.runs.get());
+    }
+
+    public void testPreferredLocationChangeCancelsSupersededSync() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        BlockingWork oldPreferred = new BlockingWork(1);
+        BlockingWork otherLocation = new BlockingWork(2);
+
+        Future<Integer> oldResult = runAsync(coordinator, "94043", true, oldPreferred);
+        Future<Integer> otherResult = runAsync(coordinator, "10001", false, otherLocation);
+        assertTrue(oldPreferred.started.await(5, TimeUnit.SECONDS));
+        assertTrue(otherLocation.started.await(5, TimeUnit.SECONDS));
+
+        coordinator.onPreferredLocationChanged("10001");
+        oldPreferred.release.countDown();
+        otherLocation.release.countDown();
+
+        assertNull("Error: the sync of the old preferred location was not cancelled",
+                oldResult.get(5, TimeUnit.SECONDS));
+        assertEquals("Error: a sync of every location was cancelled",
+                Integer.valueOf(2), otherResult.get(5, TimeUnit.SECONDS));
+        assertEquals(1, coordinator.getCancelledCount());
+    }
+
+    public void testJoinedByAllLocationsSyncIsNotCancelled() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        BlockingWork preferred = new BlockingWork(3);
+
+        Future<Integer> preferredResult = runAsync(coordinator, "94043", true, preferred);
+        assertTrue(preferred.started.await(5, TimeUnit.SECONDS));
+        // A periodic sync wants the location whatever the preferred one is
+        Future<Integer> periodicResult =
+                runAsync(coordinator, "94043", false, new BlockingWork(4));
+        waitForJoins(coordinator, 1);
+
+        coordinator.onPreferredLocationChanged("10001");
+        preferred.release.countDown();
+
+        assertEquals(Integer.valueOf(3), preferredResult.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(3), periodicResult.get(5, TimeUnit.SECONDS));
+        assertEquals(0, coordinator.getCancelledCount());
+    }
+
+    public void testCancelledSyncAbortsWorkOnlyItWants() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        SyncCoordinator.Caller periodic = new SyncCoordinator.Caller(false);
+        BlockingWork work = new BlockingWork(5);
+
+        Future<Integer> result = runAsync(coordinator, "94043", false, periodic, work);
+        assertTrue(work.started.await(5, TimeUnit.SECONDS));
+        coordinator.cancel(periodic);
+        work.release.countDown();
+
+        assertNull("Error: the work of a cancelled sync was not aborted",
+                result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, coordinator.getCancelledCount());
+
+        // Nothing more is started for a cancelled sync
+        BlockingWork late = new BlockingWork(6);
+        late.release.countDown();
+        assertNull(coordinator.run("10001", false, periodic, late));
+        assertEquals(0, late.runs.get());
+    }
+
+    public void testCancelledSyncLeavesSharedWorkToTheOthers() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        SyncCoordinator.Caller periodic = new SyncCoordinator.Caller(false);
+        SyncCoordinator.Caller manual = new SyncCoordinator.Caller(true);
+        BlockingWork work = new BlockingWork(5);
+
+        Future<Integer> periodicResult = runAsync(coordinator, "94043", false, periodic, work);
+        assertTrue(work.started.await(5, TimeUnit.SECONDS));
+        Future<Integer> manualResult =
+                runAsync(coordinator, "94043", true, manual, new BlockingWork(6));
+        waitForJoins(coordinator, 1);
+
+        coordinator.cancel(periodic);
+        work.release.countDown();
+
+        // The work goes on, on the cancelled sync's thread, but only the other sync gets it
+        assertEquals("Error: work another sync was waiting for was aborted",
+                Integer.valueOf(5), manualResult.get(5, TimeUnit.SECONDS));
+        assertNull(periodicResult.get(5, TimeUnit.SECONDS));
+        assertEquals(0, coordinator.getCancelledCount());
+    }
+
+    public void testCancelledJoinerStopsWaiting() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        SyncCoordinator.Caller joiner = new SyncCoordinator.Caller(false);
+        BlockingWork work = new BlockingWork(5);
+
+        Future<Integer> ownerResult = runAsync(coordinator, "94043", false, work);
+        assertTrue(work.started.await(5, TimeUnit.SECONDS));
+        Future<Integer> joinerResult =
+                runAsync(coordinator, "94043", false, joiner, new BlockingWork(6));
+        waitForJoins(coordinator, 1);
+
+        coordinator.cancel(joiner);
+        assertNull(joinerResult.get(5, TimeUnit.SECONDS));
+        work.release.countDown();
+        assertEquals(Integer.valueOf(5), ownerResult.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testSyncAfterCancelFetchesAfresh() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        SyncCoordinator.Caller periodic = new SyncCoordinator.Caller(false);
+        BlockingWork cancelled = new BlockingWork(5);
+
+        Future<Integer> periodicResult =
+                runAsync(coordinator, "94043", false, periodic, cancelled);
+        assertTrue(cancelled.started.await(5, TimeUnit.SECONDS));
+        coordinator.cancel(periodic);
+
+        // The manual sync doesn't join the cancelled work, but waits for it to wind down
+        BlockingWork fresh = new BlockingWork(6);
+        fresh.release.countDown();
+        Future<Integer> manualResult = runAsync(coordinator, "94043", false,
+                new SyncCoordinator.Caller(true), fresh);
+        cancelled.release.countDown();
+
+        assertNull(periodicResult.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(6), manualResult.get(5, TimeUnit.SECONDS));
+        assertEquals(1, fresh.runs.get());
+        assertEquals(0, coordinator.getJoinedCount());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final int HOUR = 60 * 60;
+
+    public void testCalmForecastWidensInterval() {
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        // Unchanged, then only the new day at the end of the forecast
+        interval = SyncScheduler.getNextSyncInterval(interval, 0, 14, SyncScheduler.USAGE_NONE);
+        assertTrue(interval > SunshineSyncAdapter.SYNC_INTERVAL);
+        int widened = SyncScheduler.getNextSyncInterval(interval, 1, 14, SyncScheduler.USAGE_NONE);
+        assertTrue(widened > interval);
+
+        for (int i = 0; i < 20; i++) {
+            widened = SyncScheduler.getNextSyncInterval(widened, 0, 14, SyncScheduler.USAGE_NONE);
+        }
+        assertEquals(SyncScheduler.MAX_SYNC_INTERVAL, widened);
+    }
+
+    public void testShiftingForecastTightensInterval() {
+        int interval = SyncScheduler.getNextSyncInterval(12 * HOUR, 7, 14, SyncScheduler.USAGE_NONE);
+        assertEquals(6 * HOUR, interval);
+
+        for (int i = 0; i < 20; i++) {
+            interval = SyncScheduler.getNextSyncInterval(interval, 14, 14, SyncScheduler.USAGE_NONE);
+        }
+        assertEquals(SyncScheduler.MIN_SYNC_INTERVAL, interval);
+    }
+
+    public void testUsage() {
+        // Somebody looking tightens even a calm forecast
+        assertEquals(4 * HOUR,
+                SyncScheduler.getNextSyncInterval(8 * HOUR, 0, 14, SyncScheduler.USAGE_ACTIVE));
+
+        // Widgets only keep it from widening past the default
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL,
+                SyncScheduler.getNextSyncInterval(8 * HOUR, 0, 14, SyncScheduler.USAGE_PASSIVE));
+        assertEquals(2 * HOUR,
+                SyncScheduler.getNextSyncInterval(2 * HOUR, 0, 14, SyncScheduler.USAGE_PASSIVE));
+
+        // Only the notifications left: once a day will do, however the forecast moves
+        assertEquals(SyncScheduler.MAX_SYNC_INTERVAL,
+                SyncScheduler.getNextSyncInterval(2 * HOUR, 14, 14, SyncScheduler.USAGE_DORMANT));
+    }
+
+    public void testHistory() {
+        List<long[]> history = new ArrayList<long[]>();
+        history.add(new long[]{1000L, 3 * HOUR});
+        history.add(new long[]{2000L, 6 * HOUR});
+
+        String formatted = SyncScheduler.formatHistory(history);
+        List<long[]> parsed = SyncScheduler.parseHistory(formatted);
+        assertEquals(2, parsed.size());
+        assertEquals(2000L, parsed.get(1)[0]);
+        assertEquals(6 * HOUR, parsed.get(1)[1]);
+
+        assertTrue(SyncScheduler.parseHistory("").isEmpty());
+        assertEquals(1, SyncScheduler.parseHistory("garbage,1000:3600").size());
+    }
+
+    public void testSyncsPerDay() {
+        long day = 1000L * 60 * 60 * 24;
+        List<long[]> history = new ArrayList<long[]>();
+
+        // Nothing chosen yet: whatever the current interval gives
+        assertEquals(8f, SyncScheduler.getSyncsPerDay(history, 3 * HOUR, day), 0.001f);
+
+        // A day at 3 hours then a day at 12 hours
+        history.add(new long[]{0, 3 * HOUR});
+        history.add(new long[]{day, 12 * HOUR});
+        assertEquals(5f, SyncScheduler.getSyncsPerDay(history, 12 * HOUR, 2 * day), 0.001f);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTraceEntry;
+
+public class TestSyncTrace extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(SyncTraceEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(SyncTraceEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testPhasesAddUp() {
+        SyncTrace trace = new SyncTrace(true);
+        trace.setLocations(3);
+        trace.addPhase(SyncTrace.PHASE_PARSE, 2000000);
+        trace.addPhase(SyncTrace.PHASE_PARSE, 3000000);
+        trace.addPhase(SyncTrace.PHASE_WEARABLES, 7000000);
+
+        ContentValues values = trace.toContentValues();
+        assertEquals(3, (int) values.getAsInteger(SyncTraceEntry.COLUMN_LOCATIONS));
+        assertEquals(1, (int) values.getAsInteger(SyncTraceEntry.COLUMN_MANUAL));
+        assertEquals(5, (long) values.getAsLong(SyncTraceEntry.COLUMN_PARSE_MS));
+        assertEquals(7, (long) values.getAsLong(SyncTraceEntry.COLUMN_WEARABLES_MS));
+        assertEquals(0, (long) values.getAsLong(SyncTraceEntry.COLUMN_INSERT_MS));
+    }
+
+    public void testRingBufferKeepsTheLastSyncs() {
+        for (int i = 0; i < SyncTraceEntry.MAX_ENTRIES + 5; i++) {
+            SyncTrace trace = new SyncTrace(false);
+            trace.setLocations(i);
+            trace.save(mContext);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncTraceEntry.CONTENT_URI,
+                new String[]{SyncTraceEntry.COLUMN_LOCATIONS}, null, null,
+                SyncTraceEntry._ID + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertEquals(SyncTraceEntry.MAX_ENTRIES, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: the oldest syncs were not the ones dropped",
+                    5, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDumpThroughProvider() {
+        for (int i = 0; i < 3; i++) {
+            SyncTrace trace = new SyncTrace(false);
+            trace.addPhase(SyncTrace.PHASE_INSERT, (i + 1) * 1000000L);
+            trace.save(mContext);
+        }
+
+        Bundle result = mContext.getContentResolver().call(SyncTraceEntry.CONTENT_URI,
+                SyncTraceEntry.METHOD_DUMP, null, null);
+        assertNotNull(result);
+        String dump = result.getString(SyncTraceEntry.KEY_DUMP);
+        assertNotNull(dump);
+        assertTrue(dump, dump.startsWith("Sync trace: 3 syncs"));
+        assertTrue(dump, dump.contains(SyncTraceEntry.COLUMN_INSERT_MS));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+public class TestTodaySnapshot extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private static ContentValues createWeatherValues(long locationRowId, long date,
+                                                     double maxTemp) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId, date);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        return weatherValues;
+    }
+
+    public void testQueryReadsToday() {
+        assertNull(TodaySnapshot.query(mContext, TEST_LOCATION));
+
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues(TEST_LOCATION));
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{
+                        createWeatherValues(locationRowId, today + dayInMillis, 80),
+                        createWeatherValues(locationRowId, today, 75),
+                        createWeatherValues(locationRowId, today - dayInMillis, 70)});
+
+        TodaySnapshot snapshot = TodaySnapshot.query(mContext, TEST_LOCATION);
+        assertNotNull(snapshot);
+        assertEquals(TEST_LOCATION, snapshot.locationSetting);
+        assertEquals(today, snapshot.date);
+        assertEquals(75.0, snapshot.maxTemp);
+        assertEquals(65.0, snapshot.minTemp);
+        assertEquals(321, snapshot.weatherId);
+        assertEquals("Asteroids", snapshot.description);
+    }
+
+    public void testParcelRoundTrip() {
+        TodaySnapshot snapshot = new TodaySnapshot(TEST_LOCATION, 1419033600L, 800, "Clear",
+                21.5, 9.25);
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            snapshot.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            TodaySnapshot copy = TodaySnapshot.CREATOR.createFromParcel(parcel);
+
+            assertEquals(snapshot.locationSetting, copy.locationSetting);
+            assertEquals(snapshot.date, copy.date);
+            assertEquals(snapshot.weatherId, copy.weatherId);
+            assertEquals(snapshot.description, copy.description);
+            assertEquals(snapshot.maxTemp, copy.maxTemp);
+            assertEquals(snapshot.minTemp, copy.minTemp);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testSnapshotForAnotherLocationIsIgnored() {
+        TodaySnapshot snapshot = new TodaySnapshot(TEST_LOCATION, 1419033600L, 800, "Clear",
+                21.5, 9.25);
+        Intent intent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .putExtra(TodaySnapshot.EXTRA_TODAY_SNAPSHOT, snapshot);
+
+        assertSame(snapshot, TodaySnapshot.fromIntent(intent, TEST_LOCATION));
+        assertNull("Error: a snapshot of the old preferred location was used",
+                TodaySnapshot.fromIntent(intent, "94043"));
+        assertNull(TodaySnapshot.fromIntent(
+                new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED), TEST_LOCATION));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class TestWeatherWritePipeline extends AndroidTestCase {
+    private static final String LOG_TAG = TestWeatherWritePipeline.class.getSimpleName();
+    private static final String TEST_LOCATION = "99705";
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private ExecutorService mExecutor;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private long insertLocation() {
+        return insertLocation(TEST_LOCATION);
+    }
+
+    private long insertLocation(String locationSetting) {
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues(locationSetting));
+        return ContentUris.parseId(locationUri);
+    }
+
+    // A different maximum every day, so that days can't be mixed up
+    private static ContentValues createWeatherValues(long locationRowId, int day) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId,
+                WeatherContract.normalizeDate(System.currentTimeMillis()) + day * DAY_IN_MILLIS);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + day);
+        return weatherValues;
+    }
+
+    private static SyncCoordinator.Flight newFlight() {
+        return new SyncCoordinator.Flight(TEST_LOCATION, false, new SyncCoordinator.Work() {
+            @Override
+            public Integer run(SyncCoordinator.Flight flight) {
+                return null;
+            }
+        });
+    }
+
+    private WeatherWritePipeline openPipeline(SyncCoordinator.Flight flight) {
+        WeatherWritePipeline pipeline =
+                WeatherWritePipeline.open(mContext.getContentResolver(), mExecutor, flight);
+        assertNotNull("Error: the provider should be reachable in process", pipeline);
+        return pipeline;
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testFinishCommitsForecast() {
+        long locationRowId = insertLocation();
+
+        WeatherWritePipeline pipeline = openPipeline(newFlight());
+        for (int day = 0; day < DAYS; day++) {
+            pipeline.add(createWeatherValues(locationRowId, day));
+        }
+        assertEquals(DAYS, (int) pipeline.finish());
+        assertEquals(DAYS, countWeather());
+
+        // The same forecast again changes nothing
+        pipeline = openPipeline(newFlight());
+        for (int day = 0; day < DAYS; day++) {
+            pipeline.add(createWeatherValues(locationRowId, day));
+        }
+        assertEquals(0, (int) pipeline.finish());
+    }
+
+    public void testAbortRollsBack() {
+        long locationRowId = insertLocation();
+
+        WeatherWritePipeline pipeline = openPipeline(newFlight());
+        for (int day = 0; day < DAYS / 2; day++) {
+            pipeline.add(createWeatherValues(locationRowId, day));
+        }
+        pipeline.abort();
+        assertEquals("Error: an aborted forecast was stored", 0, countWeather());
+
+        // Aborting a finished pipeline keeps what it committed
+        pipeline = openPipeline(newFlight());
+        pipeline.add(createWeatherValues(locationRowId, 0));
+        pipeline.finish();
+        pipeline.abort();
+        assertEquals(1, countWeather());
+    }
+
+    /**
+     * The sync is cancelled while the body is still arriving: the forecast stored before it
+     * stays as it was, none of the days read is committed.
+     */
+    public void testCancelMidBodyCommitsNothing() {
+        long locationRowId = insertLocation();
+
+        WeatherWritePipeline pipeline = openPipeline(newFlight());
+        for (int day = 0; day < DAYS; day++) {
+            pipeline.add(createWeatherValues(locationRowId, day));
+        }
+        assertEquals(DAYS, (int) pipeline.finish());
+
+        SyncCoordinator.Flight flight = newFlight();
+        pipeline = openPipeline(flight);
+        for (int day = 0; day < DAYS; day++) {
+            if (day == DAYS / 2) {
+                flight.cancel();
+            }
+            ContentValues weatherValues = createWeatherValues(locationRowId, day);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, -40);
+            pipeline.add(weatherValues);
+        }
+        assertNull("Error: a cancelled forecast was committed", pipeline.finish());
+        pipeline.abort();
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Error: a cancelled forecast changed the rows", DAYS, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals("Error: a cancelled forecast changed the rows",
+                        75.0 + day, cursor.getDouble(0), 0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Days trickling in as if from a slow network: none of them is stored until the last one
+     * is in, and then all of them at once.
+     */
+    public void testStoresOnceBodyIsIn() throws InterruptedException {
+        long locationRowId = insertLocation();
+        final long arrivalMillis = 20;
+
+        WeatherWritePipeline pipeline = openPipeline(newFlight());
+        for (int day = 0; day < DAYS; day++) {
+            Thread.sleep(arrivalMillis);
+            pipeline.add(createWeatherValues(locationRowId, day));
+        }
+        Thread.sleep(arrivalMillis);
+        assertEquals("Error: part of the forecast was stored before it was all in",
+                0, countWeather());
+        long finishStart = System.nanoTime();
+        assertEquals(DAYS, (int) pipeline.finish());
+        long finishNanos = System.nanoTime() - finishStart;
+
+        Log.i(LOG_TAG, "Wrote " + DAYS + " days in " + pipeline.getWriteNanos() / 1000 +
+                " us, done " + finishNanos / 1000 + " us after the last day arrived");
+        assertTrue("Error: the writing wasn't timed", pipeline.getWriteNanos() > 0);
+    }
+
+    /**
+     * The sync of another location stores its forecast while the first location's body is
+     * still arriving, rather than waiting behind a transaction held across the download.
+     */
+    public void testOtherLocationWritesWhileBodyArrives() throws Exception {
+        long locationRowId = insertLocation();
+        final long otherLocationRowId = insertLocation(OTHER_LOCATION);
+
+        WeatherWritePipeline pipeline = openPipeline(newFlight());
+        pipeline.add(createWeatherValues(locationRowId, 0));
+        // Give the writer the time to pick the first day up, the rest is still on its way
+        Thread.sleep(100);
+
+        Future<Integer> other = mExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                WeatherWritePipeline otherPipeline = openPipeline(newFlight());
+                for (int day = 0; day < DAYS; day++) {
+                    otherPipeline.add(createWeatherValues(otherLocationRowId, day));
+                }
+                return otherPipeline.finish();
+            }
+        });
+        try {
+            assertEquals(DAYS, (int) other.get(5, TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            fail("Error: the other location waited for the first one's body to arrive");
+        } finally {
+            for (int day = 1; day < DAYS; day++) {
+                pipeline.add(createWeatherValues(locationRowId, day));
+            }
+            pipeline.finish();
+        }
+        assertEquals(2 * DAYS, countWeather());
+    }
+}
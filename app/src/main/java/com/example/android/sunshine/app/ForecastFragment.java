@@ -33,6 +33,7 @@ import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -46,6 +47,7 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.CircuitBreaker;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -338,6 +340,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     // we see Children.
                     if (mRecyclerView.getChildCount() > 0) {
                         mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // The first forecast row is about to be drawn
+                        Utility.recordFirstForecastShown(getActivity());
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
@@ -411,6 +415,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                 @SunshineSyncAdapter.LocationStatus int location = Utility.getLocationStatus(getActivity());
                 switch (location) {
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                        // Say when the sync will try again if it's holding off the server
+                        long retryAt = CircuitBreaker.getRetryAt(getActivity());
+                        if (retryAt > System.currentTimeMillis()) {
+                            tv.setText(getString(R.string.empty_forecast_list_server_down_retry,
+                                    DateUtils.formatDateTime(getActivity(), retryAt,
+                                            DateUtils.FORMAT_SHOW_TIME)));
+                            return;
+                        }
                         message = R.string.empty_forecast_list_server_down;
                         break;
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
@@ -431,7 +443,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
+        if (key.equals(getString(R.string.pref_location_status_key))
+                || key.equals(getString(R.string.pref_breaker_retry_at_key))) {
             updateEmptyView();
         }
     }
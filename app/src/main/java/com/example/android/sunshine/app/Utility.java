@@ -17,10 +17,12 @@ package com.example.android.sunshine.app;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
+import android.util.Log;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
@@ -30,6 +32,8 @@ import java.util.Date;
 import java.util.Locale;
 
 public class Utility {
+    private static final String LOG_TAG = Utility.class.getSimpleName();
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
@@ -565,6 +569,68 @@ public class Utility {
         return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
+    /**
+     * @param c Context used to get the SharedPreferences
+     * @return how many syncs were skipped because the server reported the forecast unchanged
+     */
+    static public long getUnchangedSyncCount(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_sync_unchanged_count_key), 0);
+    }
+
+    /**
+     * Records when the app was first launched, if it isn't already.
+     * @param c Context used to get the SharedPreferences
+     */
+    static public void recordFirstLaunch(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_first_launch_key);
+        if (!sp.contains(key)) {
+            sp.edit().putLong(key, System.currentTimeMillis()).apply();
+        }
+    }
+
+    /**
+     * Records, the first time ever the forecast list shows a day, how long that took since the
+     * app was installed and since it was first launched.  The time since install includes
+     * however long the user took to open the app, the time since launch is what the cold start
+     * sync makes them wait.
+     * @param c Context used to get the SharedPreferences and the package info
+     */
+    static public void recordFirstForecastShown(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String installKey = c.getString(R.string.pref_install_to_first_forecast_key);
+        if (sp.contains(installKey)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long installTime;
+        try {
+            installTime = c.getPackageManager()
+                    .getPackageInfo(c.getPackageName(), 0).firstInstallTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Can't happen, we're asking about ourselves
+            installTime = now;
+        }
+        long launchTime = sp.getLong(c.getString(R.string.pref_first_launch_key), installTime);
+        Log.i(LOG_TAG, "First forecast shown " + (now - installTime) + " ms after install, " +
+                (now - launchTime) + " ms after first launch");
+        sp.edit()
+                .putLong(installKey, now - installTime)
+                .putLong(c.getString(R.string.pref_launch_to_first_forecast_key), now - launchTime)
+                .apply();
+    }
+
+    /**
+     * @param c Context used to get the SharedPreferences
+     * @return how long after the app was first launched the forecast list first showed a day,
+     * or -1 if it hasn't yet
+     */
+    static public long getLaunchToFirstForecast(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_launch_to_first_forecast_key), -1);
+    }
+
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
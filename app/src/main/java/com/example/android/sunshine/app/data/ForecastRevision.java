@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Packs what changed in a day's forecast for {@link WeatherContract.RevisionEntry}.
+ *
+ * A revision holds a bitmask of the weather columns that changed, bit i standing for
+ * {@link #TRACKED_COLUMNS}[i], and the new values of just those columns, one after the other
+ * in the same order.  Numbers are written as variable length integers: the weather id as is,
+ * the others in hundredths, which is as precise as openweathermap gets.  A day's first
+ * revision holds every column, each later one what changed since, so replaying them in order
+ * gives the forecast as it stood after each sync, from the oldest revision the log still keeps.
+ */
+public class ForecastRevision {
+
+    static final String[] TRACKED_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int WEATHER_ID_INDEX = 0;
+    private static final int SHORT_DESC_INDEX = 1;
+
+    /**
+     * @param values the weather columns written, whole or only those that changed
+     * @return the bitmask of the tracked columns among them
+     */
+    static int getChangedColumns(ContentValues values) {
+        int changedColumns = 0;
+        for (int i = 0; i < TRACKED_COLUMNS.length; i++) {
+            // Weather columns can't be null, a null value is left to the table's constraints
+            if (values.get(TRACKED_COLUMNS[i]) != null) {
+                changedColumns |= 1 << i;
+            }
+        }
+        return changedColumns;
+    }
+
+    /**
+     * @return the values of the columns in changedColumns, packed
+     */
+    static byte[] encode(int changedColumns, ContentValues values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (int i = 0; i < TRACKED_COLUMNS.length; i++) {
+                if ((changedColumns & (1 << i)) == 0) {
+                    continue;
+                }
+                if (i == SHORT_DESC_INDEX) {
+                    String text = values.getAsString(TRACKED_COLUMNS[i]);
+                    out.writeUTF(text == null ? "" : text);
+                } else if (i == WEATHER_ID_INDEX) {
+                    writeVarLong(out, values.getAsLong(TRACKED_COLUMNS[i]));
+                } else {
+                    writeVarLong(out, Math.round(values.getAsDouble(TRACKED_COLUMNS[i]) * 100));
+                }
+            }
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param changedColumns a revision's {@link WeatherContract.RevisionEntry#COLUMN_CHANGED_COLUMNS}
+     * @param changedValues its {@link WeatherContract.RevisionEntry#COLUMN_CHANGED_VALUES}
+     * @return the weather columns the revision changed, with their new values
+     * @throws IllegalArgumentException if the values can't be decoded
+     */
+    public static ContentValues decode(int changedColumns, byte[] changedValues) {
+        ContentValues values = new ContentValues();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(changedValues));
+        try {
+            for (int i = 0; i < TRACKED_COLUMNS.length; i++) {
+                if ((changedColumns & (1 << i)) == 0) {
+                    continue;
+                }
+                if (i == SHORT_DESC_INDEX) {
+                    values.put(TRACKED_COLUMNS[i], in.readUTF());
+                } else if (i == WEATHER_ID_INDEX) {
+                    values.put(TRACKED_COLUMNS[i], (int) readVarLong(in));
+                } else {
+                    values.put(TRACKED_COLUMNS[i], readVarLong(in) / 100.0);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed forecast revision", e);
+        }
+        return values;
+    }
+
+    // Zigzag encoded, 7 bits a byte, so small numbers of either sign take a byte or two
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Variable length integer too long");
+    }
+}
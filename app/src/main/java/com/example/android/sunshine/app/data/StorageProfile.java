@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * How weather.db is set up on disk, applied by {@link WeatherDbHelper} whenever it opens it.
+ *
+ * With write-ahead logging the loaders and widgets keep reading the forecast while the sync
+ * writes the next one, instead of waiting for its transaction to end.  Synchronous NORMAL
+ * is safe with it: a crash may lose the last transactions, never corrupt the database, and
+ * the database is only a cache of the forecast.  The memory map and page cache only apply to
+ * the connection the helper configures, which is the one the sync writes through; readers
+ * the platform opens for write-ahead logging keep its defaults.
+ */
+public class StorageProfile {
+    private static final String LOG_TAG = StorageProfile.class.getSimpleName();
+
+    // PRAGMA synchronous levels
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /**
+     * What the platform does by default: a rollback journal, synced in full.
+     */
+    public static final StorageProfile PLATFORM_DEFAULT =
+            new StorageProfile(false, 0, SYNCHRONOUS_FULL, 0);
+
+    /**
+     * Write-ahead logging, synced only at checkpoints.  weather.db stays well under a
+     * megabyte, so a small memory map and page cache hold all of it.
+     */
+    public static final StorageProfile CONCURRENT_READS =
+            new StorageProfile(true, 1024 * 1024, SYNCHRONOUS_NORMAL, 256);
+
+    final boolean writeAheadLogging;
+    // In bytes, 0 to leave memory mapping off.  Needs Lollipop's SQLite.
+    final long mmapSize;
+    final int synchronous;
+    // In pages, 0 to leave the default
+    final int cacheSize;
+
+    public StorageProfile(boolean writeAheadLogging, long mmapSize, int synchronous,
+                          int cacheSize) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.mmapSize = mmapSize;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Applies the profile to a database just opened, before anything is read or written.
+     */
+    void apply(SQLiteDatabase db) {
+        // Off unless enabled, the database is opened with a rollback journal
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            enableWriteAheadLogging(db);
+        }
+        if (mmapSize > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Setting it returns the size applied, so it can't go through execSQL
+            Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + mmapSize, null);
+            try {
+                if (cursor.moveToFirst() && cursor.getLong(0) < mmapSize) {
+                    Log.d(LOG_TAG, "Memory map limited to " + cursor.getLong(0) + " bytes");
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        db.execSQL("PRAGMA synchronous = " + synchronous);
+        if (cacheSize > 0) {
+            db.execSQL("PRAGMA cache_size = " + cacheSize);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public String toString() {
+        return "StorageProfile{wal=" + writeAheadLogging + ", mmap=" + mmapSize +
+                ", synchronous=" + synchronous + ", cache=" + cacheSize + "}";
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTraceEntry;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats the sync_trace table as plain text, for
+ * <pre>adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService</pre>
+ * and {@link SyncTraceEntry#METHOD_DUMP}.
+ */
+public class SyncTraceDump {
+    // The columns summarized by dump, in order
+    private static final String[] DUMP_COLUMNS = {
+            SyncTraceEntry.COLUMN_TOTAL_MS,
+            SyncTraceEntry.COLUMN_CONNECT_MS,
+            SyncTraceEntry.COLUMN_FIRST_BYTE_MS,
+            SyncTraceEntry.COLUMN_DOWNLOAD_MS,
+            SyncTraceEntry.COLUMN_DOWNLOAD_BYTES,
+            SyncTraceEntry.COLUMN_PARSE_MS,
+            SyncTraceEntry.COLUMN_INSERT_MS,
+            SyncTraceEntry.COLUMN_DELETE_MS,
+            SyncTraceEntry.COLUMN_WIDGETS_MS,
+            SyncTraceEntry.COLUMN_MUZEI_MS,
+            SyncTraceEntry.COLUMN_NOTIFICATION_MS,
+            SyncTraceEntry.COLUMN_WEARABLES_MS,
+            SyncTraceEntry.COLUMN_LOCATIONS,
+            SyncTraceEntry.COLUMN_REQUESTS
+    };
+
+    // How many of the most recent syncs dump lists one by one
+    private static final int DUMP_RECENT_SYNCS = 10;
+
+    /**
+     * Writes a summary of the syncs in the cursor: the median, 95th percentile and maximum of
+     * each phase, then the most recent syncs one by one.
+     *
+     * @param cursor rows of the sync_trace table with every column, oldest first
+     */
+    public static void dump(Cursor cursor, PrintWriter writer) {
+        int count = cursor.getCount();
+        writer.println("Sync trace: " + count + " syncs (last " + SyncTraceEntry.MAX_ENTRIES +
+                " kept)");
+        if (count == 0) {
+            return;
+        }
+
+        writer.println(String.format(Locale.US, "  %-16s %10s %10s %10s",
+                "", "p50", "p95", "max"));
+        for (String column : DUMP_COLUMNS) {
+            int index = cursor.getColumnIndexOrThrow(column);
+            long[] values = new long[count];
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                values[cursor.getPosition()] = cursor.getLong(index);
+            }
+            Arrays.sort(values);
+            writer.println(String.format(Locale.US, "  %-16s %10d %10d %10d", column,
+                    percentile(values, 50), percentile(values, 95), values[count - 1]));
+        }
+
+        writer.println("Most recent syncs:");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        int startTimeIndex = cursor.getColumnIndexOrThrow(SyncTraceEntry.COLUMN_START_TIME);
+        int manualIndex = cursor.getColumnIndexOrThrow(SyncTraceEntry.COLUMN_MANUAL);
+        cursor.moveToPosition(Math.max(-1, count - DUMP_RECENT_SYNCS - 1));
+        while (cursor.moveToNext()) {
+            StringBuilder line = new StringBuilder("  ")
+                    .append(dateFormat.format(new Date(cursor.getLong(startTimeIndex))))
+                    .append(cursor.getInt(manualIndex) != 0 ? " manual  " : " periodic");
+            for (String column : DUMP_COLUMNS) {
+                line.append(' ').append(column).append('=')
+                        .append(cursor.getLong(cursor.getColumnIndexOrThrow(column)));
+            }
+            writer.println(line);
+        }
+    }
+
+    /**
+     * @param sorted values in ascending order, at least one
+     * @return the nearest-rank percentile of the values
+     */
+    static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+}
@@ -43,6 +43,11 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_TRACE = "sync_trace";
+    public static final String PATH_REVISION = "revision";
+    public static final String PATH_WEATHER_BY_LOCATION_ID = "weather_by_location_id";
+    // Under PATH_LOCATION, for looking a location up by its setting
+    public static final String PATH_SETTING = "setting";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +86,47 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP validators (ETag and Last-Modified headers) of the last forecast stored for this
+        // location.  They are sent back on the next request so an unchanged forecast can be
+        // answered with a 304 instead of the whole payload.  Either may be null.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Outcome of the last sync of this location, one of SunshineSyncAdapter's
+        // LOCATION_STATUS_* values, and when it happened, in milliseconds since the epoch.
+        // Both are null until the location has been synced once.
+        public static final String COLUMN_SYNC_STATUS = "sync_status";
+        public static final String COLUMN_SYNC_TIME = "sync_time";
+
+        // The id openweathermap knows the city by.  Once known, the forecast is asked for by
+        // id rather than by location setting, so the server doesn't have to resolve the
+        // setting again on every sync.  Null until the first forecast has been stored.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // The location holding the weather for this one, when several location settings, e.g
+        // a postcode and a city name, resolve to the same city: they share the forecast of the
+        // first of them to be stored rather than each fetching and storing its own.  Null
+        // when the location holds its own weather.  The provider fills it in whenever a city
+        // id is stored, on insert or update, unless it's given.
+        public static final String COLUMN_CANONICAL_ID = "canonical_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * The location stored for a setting, if any.  Only its _ID, COLUMN_LOCATION_SETTING,
+         * COLUMN_CITY_ID and COLUMN_CANONICAL_ID can be queried this way, which the provider
+         * answers from memory once it has looked them up.
+         */
+        public static Uri buildLocationSettingUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SETTING)
+                    .appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +169,12 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // The weather of a location by its row id, straight from the weather table.  The id
+        // is that of the location holding the weather, its COLUMN_CANONICAL_ID if it has one.
+        // Only the weather columns can be queried this way.
+        public static final Uri LOCATION_ID_CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_BY_LOCATION_ID).build();
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,10 +198,29 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherLocationId(long locationId) {
+            return ContentUris.withAppendedId(LOCATION_ID_CONTENT_URI, locationId);
+        }
+
+        public static Uri buildWeatherLocationIdWithStartDate(long locationId, long startDate) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildWeatherLocationIdWithDate(long locationId, long date) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -165,4 +233,83 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the sync trace table */
+    public static final class SyncTraceEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TRACE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TRACE;
+
+        public static final String TABLE_NAME = "sync_trace";
+
+        // The table is a ring buffer: once it holds this many syncs, recording a new one drops
+        // the oldest
+        public static final int MAX_ENTRIES = 200;
+
+        // Provider call returning, under KEY_DUMP, a plain text summary of the table with
+        // the median and 95th percentile of each phase
+        public static final String METHOD_DUMP = "dump_sync_trace";
+        public static final String KEY_DUMP = "dump";
+
+        // When the sync started, in milliseconds since the epoch, and whether it was manual
+        public static final String COLUMN_START_TIME = "start_time";
+        public static final String COLUMN_MANUAL = "manual";
+
+        // How many locations the sync covered, and how many requests it made for them
+        public static final String COLUMN_LOCATIONS = "locations";
+        public static final String COLUMN_REQUESTS = "requests";
+
+        // Wall clock time of the whole sync, in milliseconds
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+
+        // Time spent in each phase, in milliseconds, summed over the locations.  Locations are
+        // synced side by side, so these can add up to more than the total.
+        public static final String COLUMN_CONNECT_MS = "connect_ms";
+        public static final String COLUMN_FIRST_BYTE_MS = "first_byte_ms";
+        public static final String COLUMN_DOWNLOAD_MS = "download_ms";
+        public static final String COLUMN_PARSE_MS = "parse_ms";
+        public static final String COLUMN_INSERT_MS = "insert_ms";
+        public static final String COLUMN_DELETE_MS = "delete_ms";
+
+        // Body bytes received, as they came over the network
+        public static final String COLUMN_DOWNLOAD_BYTES = "download_bytes";
+
+        // Time spent handing today's weather to each of the places that show it, in
+        // milliseconds.  0 when the preferred location didn't change.
+        public static final String COLUMN_WIDGETS_MS = "widgets_ms";
+        public static final String COLUMN_MUZEI_MS = "muzei_ms";
+        public static final String COLUMN_NOTIFICATION_MS = "notification_ms";
+        public static final String COLUMN_WEARABLES_MS = "wearables_ms";
+    }
+
+    /* Inner class that defines the table contents of the forecast revision table */
+    public static final class RevisionEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_REVISION).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REVISION;
+
+        public static final String TABLE_NAME = "forecast_revision";
+
+        // The table is a ring buffer: once it holds this many revisions, the oldest are dropped
+        // as new ones are recorded
+        public static final int MAX_ENTRIES = 10000;
+
+        // The location and day the revision is about, as in the weather table
+        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_DATE = "date";
+
+        // When the sync that stored the revision wrote it, in milliseconds since the epoch
+        public static final String COLUMN_REVISION_TIME = "revision_time";
+
+        // Which weather columns changed, as a bitmask, and their new values, packed.  See
+        // ForecastRevision to decode them.
+        public static final String COLUMN_CHANGED_COLUMNS = "changed_columns";
+        public static final String COLUMN_CHANGED_VALUES = "changed_values";
+    }
 }
@@ -18,8 +18,11 @@ package com.example.android.sunshine.app.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RevisionEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTraceEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -27,25 +30,109 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add
+    // the step from the previous one to upgradeTo.
+    static final int DATABASE_VERSION = 9;
+
+    // The oldest version upgradeTo can take a database from: the one the app first shipped.
+    // Anything older is dropped and created again.
+    static final int FIRST_UPGRADABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The weather of a location from a date on, which is how the forecast list, the widgets
+    // and the sync's own writes read it.  The UNIQUE (date, location_id) constraint leads with
+    // the date, so it only serves lookups of a single day and deleting past days.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+    // Finding the location already stored for a city, see LocationEntry.COLUMN_CANONICAL_ID.
+    // The location setting is looked up through its UNIQUE constraint.
+    static final String INDEX_LOCATION_CITY_ID = "location_city_id";
+
+    // One row per sync with the time spent in each of its phases, see SyncTrace
+    private static final String SQL_CREATE_SYNC_TRACE_TABLE =
+            "CREATE TABLE " + SyncTraceEntry.TABLE_NAME + " (" +
+            SyncTraceEntry._ID + " INTEGER PRIMARY KEY," +
+            SyncTraceEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_MANUAL + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_REQUESTS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_TOTAL_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_CONNECT_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_FIRST_BYTE_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_DOWNLOAD_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_DOWNLOAD_BYTES + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_PARSE_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_INSERT_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_DELETE_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_WIDGETS_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_MUZEI_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_NOTIFICATION_MS + " INTEGER NOT NULL, " +
+            SyncTraceEntry.COLUMN_WEARABLES_MS + " INTEGER NOT NULL " +
+            " );";
+
+    // Append only: one row each time a sync changed a day's forecast, with only what
+    // changed, see ForecastRevision
+    private static final String SQL_CREATE_REVISION_TABLE =
+            "CREATE TABLE " + RevisionEntry.TABLE_NAME + " (" +
+            RevisionEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            RevisionEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            RevisionEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            RevisionEntry.COLUMN_REVISION_TIME + " INTEGER NOT NULL, " +
+            RevisionEntry.COLUMN_CHANGED_COLUMNS + " INTEGER NOT NULL, " +
+            RevisionEntry.COLUMN_CHANGED_VALUES + " BLOB NOT NULL " +
+            " );";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+    private static final String SQL_CREATE_LOCATION_CITY_ID_INDEX = "CREATE INDEX " +
+            INDEX_LOCATION_CITY_ID + " ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_CITY_ID + ");";
+
+    private final StorageProfile mStorageProfile;
+
     public WeatherDbHelper(Context context) {
+        this(context, StorageProfile.CONCURRENT_READS);
+    }
+
+    public WeatherDbHelper(Context context, StorageProfile storageProfile) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mStorageProfile = storageProfile;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Only called from Jelly Bean on
+        mStorageProfile.apply(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            mStorageProfile.apply(db);
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, the latitude and longitude, the HTTP validators
+        // of the last forecast fetched for it, the outcome of its last sync, the id
+        // openweathermap has for the city and the location whose weather it shares, if any
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_SYNC_STATUS + " INTEGER, " +
+                LocationEntry.COLUMN_SYNC_TIME + " INTEGER, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_CANONICAL_ID + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +168,107 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_TRACE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_REVISION_TABLE);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_CITY_ID_INDEX);
     }
 
+    /**
+     * Takes the database up one version at a time, keeping the forecasts already stored: the
+     * list has something to show straight after the app is updated, and the next sync only
+     * needs to refresh them.  Columns added along the way start out null and are filled in by
+     * the syncs that follow.
+     *
+     * The whole upgrade runs in the transaction SQLiteOpenHelper opens for it, so a step that
+     * fails leaves the database at its old version.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < FIRST_UPGRADABLE_VERSION) {
+            // This database is only a cache for online data, so what can't be upgraded is
+            // simply discarded and fetched again
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncTraceEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + RevisionEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            upgradeTo(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Applies the step from the version before this one.  Steps that create a table or an index
+     * spell out its definition as it was at their version rather than using onCreate's, which
+     * keeps changing with the versions that follow.
+     */
+    private static void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 3:
+                // The HTTP validators of the forecast
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_ETAG, "TEXT");
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_LAST_MODIFIED, "TEXT");
+                break;
+            case 4:
+                // The outcome of the last sync
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_SYNC_STATUS, "INTEGER");
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_SYNC_TIME, "INTEGER");
+                break;
+            case 5:
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_CITY_ID, "INTEGER");
+                break;
+            case 6:
+                db.execSQL("CREATE TABLE sync_trace (" +
+                        "_id INTEGER PRIMARY KEY," +
+                        "start_time INTEGER NOT NULL, " +
+                        "manual INTEGER NOT NULL, " +
+                        "locations INTEGER NOT NULL, " +
+                        "requests INTEGER NOT NULL, " +
+                        "total_ms INTEGER NOT NULL, " +
+                        "connect_ms INTEGER NOT NULL, " +
+                        "first_byte_ms INTEGER NOT NULL, " +
+                        "download_ms INTEGER NOT NULL, " +
+                        "download_bytes INTEGER NOT NULL, " +
+                        "parse_ms INTEGER NOT NULL, " +
+                        "insert_ms INTEGER NOT NULL, " +
+                        "delete_ms INTEGER NOT NULL, " +
+                        "widgets_ms INTEGER NOT NULL, " +
+                        "muzei_ms INTEGER NOT NULL, " +
+                        "notification_ms INTEGER NOT NULL, " +
+                        "wearables_ms INTEGER NOT NULL " +
+                        " );");
+                break;
+            case 7:
+                // Existing locations each hold their own weather, as they did so far
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_CANONICAL_ID, "INTEGER");
+                break;
+            case 8:
+                // The log starts with the next sync
+                db.execSQL("CREATE TABLE forecast_revision (" +
+                        "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "location_id INTEGER NOT NULL, " +
+                        "date INTEGER NOT NULL, " +
+                        "revision_time INTEGER NOT NULL, " +
+                        "changed_columns INTEGER NOT NULL, " +
+                        "changed_values BLOB NOT NULL " +
+                        " );");
+                break;
+            case 9:
+                db.execSQL("CREATE INDEX weather_location_date ON weather (location_id, date);");
+                db.execSQL("CREATE INDEX location_city_id ON location (city_id);");
+                break;
+            default:
+                throw new IllegalStateException("No upgrade to version " + version);
+        }
+    }
+
+    // Adding a column only rewrites the table's definition, not its rows, so it takes the
+    // same time however many forecasts are stored
+    private static void addColumn(SQLiteDatabase db, String table, String column, String type) {
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
     }
 }
@@ -17,12 +17,22 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,40 +40,69 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // How many locations are looked up by setting from memory, way more than anyone follows
+    static final int LOCATION_CACHE_SIZE = 32;
+
+    // The columns of a location that can be looked up by setting
+    private static final String[] LOCATION_SETTING_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID,
+            WeatherContract.LocationEntry.COLUMN_CANONICAL_ID
+    };
+
+    // Location setting to its LOCATION_SETTING_COLUMNS.  Only what's actually stored is
+    // cached, and the whole cache goes whenever a location is deleted or one of these columns
+    // is written: locations only change that way when the user edits the setting.
+    private final LruCache<String, Object[]> mLocationCache =
+            new LruCache<String, Object[]>(LOCATION_CACHE_SIZE);
+    // Bumped on every eviction, so a lookup racing with a write doesn't cache a stale row
+    private volatile int mLocationCacheGeneration;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_ID = 103;
+    static final int WEATHER_WITH_LOCATION_ID_AND_DATE = 104;
     static final int LOCATION = 300;
+    static final int LOCATION_WITH_SETTING = 301;
+    static final int SYNC_TRACE = 400;
+    static final int REVISION = 500;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
+        //weather INNER JOIN location
+        //        ON weather.location_id = IFNULL(location.canonical_id, location._id)
+        //so a location setting that shares another one's weather finds it, along with its
+        //own location columns
         sWeatherByLocationSettingQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+                        " = IFNULL(" + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry.COLUMN_CANONICAL_ID + ", " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID + ")");
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -93,6 +132,123 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    private Cursor getWeatherByLocationId(Uri uri, String[] projection, String sortOrder) {
+        String locationId = Long.toString(WeatherContract.WeatherEntry.getLocationIdFromUri(uri));
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startDate == 0) {
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{locationId};
+        } else {
+            selectionArgs = new String[]{locationId, Long.toString(startDate)};
+            selection = sLocationIdWithStartDateSelection;
+        }
+
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getWeatherByLocationIdAndDate(Uri uri, String[] projection, String sortOrder) {
+        long locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Long.toString(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getLocationBySetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.LocationEntry.getLocationSettingFromUri(uri);
+        Object[] row = mLocationCache.get(locationSetting);
+        if (row == null) {
+            int generation = mLocationCacheGeneration;
+            Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.LocationEntry.TABLE_NAME,
+                    LOCATION_SETTING_COLUMNS,
+                    sLocationSettingSelection,
+                    new String[]{locationSetting},
+                    null,
+                    null,
+                    null);
+            try {
+                if (cursor.moveToFirst()) {
+                    row = new Object[]{
+                            cursor.getLong(0),
+                            cursor.getString(1),
+                            cursor.isNull(2) ? null : cursor.getLong(2),
+                            cursor.isNull(3) ? null : cursor.getLong(3)
+                    };
+                }
+            } finally {
+                cursor.close();
+            }
+            if (row != null && generation == mLocationCacheGeneration) {
+                mLocationCache.put(locationSetting, row);
+            }
+        }
+
+        if (projection == null) {
+            projection = LOCATION_SETTING_COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, row == null ? 0 : 1);
+        if (row != null) {
+            Object[] projected = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                int index = Arrays.asList(LOCATION_SETTING_COLUMNS).indexOf(projection[i]);
+                if (index == -1) {
+                    throw new IllegalArgumentException("Column " + projection[i] +
+                            " can't be looked up by setting: " + uri);
+                }
+                projected[i] = row[index];
+            }
+            cursor.addRow(projected);
+        }
+        return cursor;
+    }
+
+    // Whether writing these values to a location can change what's cached for it
+    private static boolean changesLocationCache(ContentValues values) {
+        for (String column : LOCATION_SETTING_COLUMNS) {
+            if (values.containsKey(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictLocationCache() {
+        mLocationCacheGeneration++;
+        mLocationCache.evictAll();
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -129,7 +285,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_BY_LOCATION_ID + "/#",
+                WEATHER_WITH_LOCATION_ID);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_BY_LOCATION_ID + "/#/#",
+                WEATHER_WITH_LOCATION_ID_AND_DATE);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_SETTING + "/*", LOCATION_WITH_SETTING);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TRACE, SYNC_TRACE);
+        matcher.addURI(authority, WeatherContract.PATH_REVISION, REVISION);
         return matcher;
     }
 
@@ -160,10 +325,20 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
+                return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
+            case WEATHER_WITH_LOCATION_ID:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_WITH_SETTING:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case SYNC_TRACE:
+                return WeatherContract.SyncTraceEntry.CONTENT_TYPE;
+            case REVISION:
+                return WeatherContract.RevisionEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -187,6 +362,21 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
+            // "weather_by_location_id/#/#"
+            case WEATHER_WITH_LOCATION_ID_AND_DATE: {
+                retCursor = getWeatherByLocationIdAndDate(uri, projection, sortOrder);
+                // Weather is only ever written, and notified, under "weather"
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.WeatherEntry.CONTENT_URI);
+                return retCursor;
+            }
+            // "weather_by_location_id/#"
+            case WEATHER_WITH_LOCATION_ID: {
+                retCursor = getWeatherByLocationId(uri, projection, sortOrder);
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.WeatherEntry.CONTENT_URI);
+                return retCursor;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,6 +403,39 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/setting/*"
+            case LOCATION_WITH_SETTING: {
+                retCursor = getLocationBySetting(uri, projection);
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.LocationEntry.CONTENT_URI);
+                return retCursor;
+            }
+            // "sync_trace"
+            case SYNC_TRACE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncTraceEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "revision"
+            case REVISION: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.RevisionEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -241,13 +464,42 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                long _id;
+                // Looking for the city and inserting in one transaction keeps two settings of
+                // the same city synced at once from both taking it for their own
+                db.beginTransaction();
+                try {
+                    Long cityId = values.getAsLong(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+                    String canonicalColumn = WeatherContract.LocationEntry.COLUMN_CANONICAL_ID;
+                    if (cityId != null && !values.containsKey(canonicalColumn)) {
+                        Long canonicalId = getLocationIdOfCity(db, cityId, -1);
+                        if (canonicalId != null) {
+                            values.put(canonicalColumn, canonicalId);
+                        }
+                    }
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_TRACE: {
+                long _id = db.insert(WeatherContract.SyncTraceEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Ids only grow, so this drops whatever is beyond the last MAX_ENTRIES syncs
+                db.delete(WeatherContract.SyncTraceEntry.TABLE_NAME,
+                        WeatherContract.SyncTraceEntry._ID + " <= ?",
+                        new String[]{Long.toString(_id - WeatherContract.SyncTraceEntry.MAX_ENTRIES)});
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -270,6 +522,15 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                evictLocationCache();
+                break;
+            case SYNC_TRACE:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncTraceEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case REVISION:
+                rowsDeleted = db.delete(
+                        WeatherContract.RevisionEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -281,7 +542,7 @@ public class WeatherProvider extends ContentProvider {
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -303,8 +564,18 @@ public class WeatherProvider extends ContentProvider {
                         selectionArgs);
                 break;
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                if (values.containsKey(WeatherContract.LocationEntry.COLUMN_CITY_ID)
+                        && !values.containsKey(WeatherContract.LocationEntry.COLUMN_CANONICAL_ID)) {
+                    rowsUpdated = updateCityId(db, values, selection, selectionArgs);
+                } else {
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                }
+                // The sync status and HTTP validators are written on every sync, and aren't
+                // cached
+                if (changesLocationCache(values)) {
+                    evictLocationCache();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -315,33 +586,150 @@ public class WeatherProvider extends ContentProvider {
         return rowsUpdated;
     }
 
+    /**
+     * Updates locations learning their city id, and has each one that holds its own weather
+     * share that of the location already holding the city's, if any, as if the city had been
+     * known when it was inserted.  The locations sharing its weather follow it, and its own
+     * weather, which nothing reads any more, is deleted.
+     *
+     * @return the number of locations updated
+     */
+    private int updateCityId(SQLiteDatabase db, ContentValues values, String selection,
+                             String[] selectionArgs) {
+        Long cityId = values.getAsLong(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        int rowsUpdated;
+        boolean weatherDeleted = false;
+        db.beginTransaction();
+        try {
+            // The selection may well be on the columns being updated, what it matches has to
+            // be known beforehand
+            List<Long> ids = new ArrayList<Long>();
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_CANONICAL_ID + " IS NULL" +
+                            (selection == null ? "" : " AND (" + selection + ")"),
+                    selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+
+            for (long id : ids) {
+                Long canonicalId = cityId == null ? null : getLocationIdOfCity(db, cityId, id);
+                if (canonicalId == null) {
+                    continue;
+                }
+                ContentValues canonicalValues = new ContentValues();
+                canonicalValues.put(WeatherContract.LocationEntry.COLUMN_CANONICAL_ID, canonicalId);
+                String locationId = Long.toString(id);
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, canonicalValues,
+                        WeatherContract.LocationEntry._ID + " = ? OR " +
+                                WeatherContract.LocationEntry.COLUMN_CANONICAL_ID + " = ?",
+                        new String[]{locationId, locationId});
+                weatherDeleted |= db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{locationId}) > 0;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (weatherDeleted) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * @param cityId the OWM id of the city
+     * @param exceptId a location not to be returned, or -1
+     * @return the row ID of the location holding the weather of the city, or null if none does
+     */
+    private static Long getLocationIdOfCity(SQLiteDatabase db, long cityId, long exceptId) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " = ? AND " +
+                        WeatherContract.LocationEntry.COLUMN_CANONICAL_ID + " IS NULL AND " +
+                        WeatherContract.LocationEntry._ID + " != ?",
+                new String[]{Long.toString(cityId), Long.toString(exceptId)},
+                null,
+                null,
+                WeatherContract.LocationEntry._ID + " ASC",
+                "1");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Weather rows are written through a {@link WeatherWriter}, see there.  Observers are only
+     * notified if at least one row was written.
+     *
+     * @return the number of rows inserted or updated
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+                WeatherWriter writer = openWeatherWriter();
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
+                    writer.write(values);
+                    return writer.commit();
                 } finally {
-                    db.endTransaction();
+                    writer.abort();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Opens a writer of weather rows, for callers in this process that store them without
+     * going through {@link #bulkInsert}.  The writer holds a transaction
+     * open on the calling thread until it is committed or aborted, blocking every other writer
+     * of the database meanwhile: it must not be kept open while waiting for anything else.
+     */
+    public WeatherWriter openWeatherWriter() {
+        return new WeatherWriter(mOpenHelper.getWritableDatabase(),
+                getContext().getContentResolver());
+    }
+
+    /**
+     * Supports {@link WeatherContract.SyncTraceEntry#METHOD_DUMP}, which returns a plain text
+     * summary of the recorded syncs.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.SyncTraceEntry.METHOD_DUMP.equals(method)) {
+            StringWriter dump = new StringWriter();
+            PrintWriter writer = new PrintWriter(dump);
+            Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.SyncTraceEntry.TABLE_NAME, null, null, null, null, null,
+                    WeatherContract.SyncTraceEntry._ID + " ASC");
+            try {
+                SyncTraceDump.dump(cursor, writer);
+            } finally {
+                cursor.close();
+            }
+            writer.flush();
+
+            Bundle result = new Bundle();
+            result.putString(WeatherContract.SyncTraceEntry.KEY_DUMP, dump.toString());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes batches of weather rows inside a transaction of its own.
+ *
+ * Rows are matched on location and date against what's already stored, without going through
+ * the table's ON CONFLICT REPLACE: that would delete and re-insert every day of every sync,
+ * handing out a new _id each time, while the forecast list relies on stable ids to keep track
+ * of the selected day.  New days are inserted, only the columns that actually differ are
+ * updated and days that didn't change are left alone.  What's stored is read with one query per
+ * location of a batch, bounded by the first and last day of the batch for that location, so a
+ * location holding a long history doesn't have all of it read for every sync.
+ *
+ * New days are inserted through a statement compiled once per writer, binding each column
+ * straight from the values rather than building and compiling an INSERT for every row.  Rows
+ * that don't hold exactly the columns it expects go through {@link SQLiteDatabase#insert}.
+ *
+ * Every day inserted or changed is also recorded in the revision log, with only the columns that
+ * changed, see {@link ForecastRevision}.  The log is kept to
+ * {@link WeatherContract.RevisionEntry#MAX_ENTRIES} revisions, the oldest dropped on commit.
+ *
+ * A writer belongs to the thread that opened it, as its transaction does, and must be either
+ * committed or aborted.
+ */
+public class WeatherWriter {
+    private static final String LOG_TAG = WeatherWriter.class.getSimpleName();
+
+    // The columns of a weather row, in the order they're bound to the insert statement
+    private static final String[] INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int FIRST_REAL_COLUMN = 4;
+
+    // location.location_id = ? AND date BETWEEN ? AND ?
+    private static final String sLocationIdAndDatesSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ? ";
+
+    private final SQLiteDatabase mDb;
+    private final ContentResolver mResolver;
+    // What's already stored, by location, read for the days of the batches written so far
+    private final Map<Long, StoredDays> mStoredDays = new HashMap<Long, StoredDays>();
+    // All the revisions of a commit get the same time, that of the sync
+    private final long mRevisionTime;
+    private long mLastRevisionId = -1;
+    // Compiled the first time they're needed
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mRevisionStatement;
+    private int mCount;
+    private boolean mEnded;
+
+    WeatherWriter(SQLiteDatabase db, ContentResolver resolver) {
+        mDb = db;
+        mResolver = resolver;
+        mRevisionTime = System.currentTimeMillis();
+        mDb.beginTransaction();
+    }
+
+    /**
+     * Inserts or updates a batch of weather rows.
+     */
+    public void write(ContentValues[] values) {
+        // The first and last day of the batch, by location
+        Map<Long, long[]> dates = new HashMap<Long, long[]>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                continue;
+            }
+            date = WeatherContract.normalizeDate(date);
+            long[] range = dates.get(locationId);
+            if (range == null) {
+                dates.put(locationId, new long[]{date, date});
+            } else {
+                range[0] = Math.min(range[0], date);
+                range[1] = Math.max(range[1], date);
+            }
+        }
+        for (Map.Entry<Long, long[]> range : dates.entrySet()) {
+            loadStoredDays(range.getKey(), range.getValue()[0], range.getValue()[1]);
+        }
+
+        for (ContentValues value : values) {
+            write(value);
+        }
+    }
+
+    // Makes sure what's stored between the two days is read
+    private void loadStoredDays(long locationId, long firstDate, long lastDate) {
+        StoredDays stored = mStoredDays.get(locationId);
+        if (stored != null) {
+            if (stored.firstDate <= firstDate && lastDate <= stored.lastDate) {
+                return;
+            }
+            // Read again, what's been written meanwhile included
+            firstDate = Math.min(firstDate, stored.firstDate);
+            lastDate = Math.max(lastDate, stored.lastDate);
+            stored.cursor.close();
+        }
+        mStoredDays.put(locationId, new StoredDays(mDb, locationId, firstDate, lastDate));
+    }
+
+    private void write(ContentValues value) {
+        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Can't be matched with anything.  Let the table's constraints have their say.
+            insertValues(value);
+            return;
+        }
+        date = WeatherContract.normalizeDate(date);
+
+        StoredDays stored = mStoredDays.get(locationId);
+        Integer position = stored.positions.get(date);
+        if (position == null) {
+            if (insert(locationId, date, value)) {
+                logRevision(locationId, date, value);
+            }
+            return;
+        }
+
+        stored.cursor.moveToPosition(position);
+        ContentValues changedValues = getChangedValues(stored.cursor, value);
+        if (changedValues.size() > 0) {
+            mDb.update(WeatherContract.WeatherEntry.TABLE_NAME, changedValues,
+                    WeatherContract.WeatherEntry._ID + " = ?",
+                    new String[]{Long.toString(stored.cursor.getLong(stored.idIndex))});
+            mCount++;
+            logRevision(locationId, date, changedValues);
+        }
+    }
+
+    private boolean insert(long locationId, long date, ContentValues value) {
+        if (!hasInsertColumns(value)) {
+            return insertValues(value);
+        }
+        if (mInsertStatement == null) {
+            mInsertStatement = mDb.compileStatement(buildInsert(
+                    WeatherContract.WeatherEntry.TABLE_NAME, INSERT_COLUMNS));
+        }
+        mInsertStatement.bindLong(1, locationId);
+        mInsertStatement.bindLong(2, date);
+        mInsertStatement.bindString(3, value.getAsString(INSERT_COLUMNS[2]));
+        mInsertStatement.bindLong(4, value.getAsLong(INSERT_COLUMNS[3]));
+        for (int i = FIRST_REAL_COLUMN; i < INSERT_COLUMNS.length; i++) {
+            mInsertStatement.bindDouble(i + 1, value.getAsDouble(INSERT_COLUMNS[i]));
+        }
+        return counted(executeInsert(mInsertStatement));
+    }
+
+    // Inserts the values as they come, with their date normalized
+    private boolean insertValues(ContentValues value) {
+        ContentValues normalized = new ContentValues(value);
+        WeatherProvider.normalizeDate(normalized);
+        return counted(mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, normalized));
+    }
+
+    // Counts the row if it was inserted
+    private boolean counted(long rowId) {
+        if (rowId == -1) {
+            return false;
+        }
+        mCount++;
+        return true;
+    }
+
+    // Whether the values hold every column of a weather row and nothing else
+    private static boolean hasInsertColumns(ContentValues value) {
+        if (value.size() != INSERT_COLUMNS.length) {
+            return false;
+        }
+        for (String column : INSERT_COLUMNS) {
+            if (value.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String buildInsert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder bindings = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+            bindings.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(") VALUES (").append(bindings).append(")").toString();
+    }
+
+    // Like SQLiteDatabase#insert, logs a row that can't be inserted and returns -1
+    private static long executeInsert(SQLiteStatement statement) {
+        try {
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting " + statement, e);
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Appends a revision of the day with the tracked columns among changedValues, if any.
+     */
+    private void logRevision(long locationId, long date, ContentValues changedValues) {
+        int changedColumns = ForecastRevision.getChangedColumns(changedValues);
+        if (changedColumns == 0) {
+            return;
+        }
+        if (mRevisionStatement == null) {
+            mRevisionStatement = mDb.compileStatement(buildInsert(
+                    WeatherContract.RevisionEntry.TABLE_NAME, new String[]{
+                            WeatherContract.RevisionEntry.COLUMN_LOC_KEY,
+                            WeatherContract.RevisionEntry.COLUMN_DATE,
+                            WeatherContract.RevisionEntry.COLUMN_REVISION_TIME,
+                            WeatherContract.RevisionEntry.COLUMN_CHANGED_COLUMNS,
+                            WeatherContract.RevisionEntry.COLUMN_CHANGED_VALUES}));
+        }
+        mRevisionStatement.bindLong(1, locationId);
+        mRevisionStatement.bindLong(2, date);
+        mRevisionStatement.bindLong(3, mRevisionTime);
+        mRevisionStatement.bindLong(4, changedColumns);
+        mRevisionStatement.bindBlob(5, ForecastRevision.encode(changedColumns, changedValues));
+        long id = executeInsert(mRevisionStatement);
+        if (id != -1) {
+            mLastRevisionId = id;
+        }
+    }
+
+    /**
+     * Commits the rows written and notifies the observers of the weather if any were.
+     *
+     * @return the number of rows inserted or updated
+     */
+    public int commit() {
+        if (mLastRevisionId != -1) {
+            // Keep the log a ring buffer, the ids go up with every revision
+            mDb.delete(WeatherContract.RevisionEntry.TABLE_NAME,
+                    WeatherContract.RevisionEntry._ID + " <= ?",
+                    new String[]{Long.toString(
+                            mLastRevisionId - WeatherContract.RevisionEntry.MAX_ENTRIES)});
+        }
+        mDb.setTransactionSuccessful();
+        end();
+        // An unchanged forecast doesn't need the list, the widgets etc. to reload
+        if (mCount > 0) {
+            mResolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        return mCount;
+    }
+
+    /**
+     * Rolls back everything written.  Does nothing once the writer has been committed.
+     */
+    public void abort() {
+        if (!mEnded) {
+            end();
+        }
+    }
+
+    private void end() {
+        mEnded = true;
+        closeStoredDays();
+        if (mInsertStatement != null) {
+            mInsertStatement.close();
+        }
+        if (mRevisionStatement != null) {
+            mRevisionStatement.close();
+        }
+        mDb.endTransaction();
+    }
+
+    private void closeStoredDays() {
+        for (StoredDays stored : mStoredDays.values()) {
+            stored.cursor.close();
+        }
+        mStoredDays.clear();
+    }
+
+    /**
+     * The weather stored for one location between two days, and the position of each of those
+     * days in the cursor.
+     */
+    private static class StoredDays {
+        final long firstDate;
+        final long lastDate;
+        final Cursor cursor;
+        final int idIndex;
+        final Map<Long, Integer> positions;
+
+        StoredDays(SQLiteDatabase db, long locationId, long firstDate, long lastDate) {
+            this.firstDate = firstDate;
+            this.lastDate = lastDate;
+            // Served by the index on location and date
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null,
+                    sLocationIdAndDatesSelection,
+                    new String[]{Long.toString(locationId), Long.toString(firstDate),
+                            Long.toString(lastDate)},
+                    null,
+                    null,
+                    null);
+            idIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry._ID);
+            int dateIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+            positions = new HashMap<Long, Integer>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                positions.put(cursor.getLong(dateIndex), cursor.getPosition());
+            }
+        }
+    }
+
+    /**
+     * @param stored a cursor positioned on the stored row
+     * @param values the values about to be written to that row
+     * @return the values that differ from what's stored
+     */
+    private static ContentValues getChangedValues(Cursor stored, ContentValues values) {
+        ContentValues changedValues = new ContentValues(values);
+        // The row was matched on its date, which may only differ from the stored one by not
+        // being normalized
+        changedValues.remove(WeatherContract.WeatherEntry.COLUMN_DATE);
+        for (Map.Entry<String, Object> column : values.valueSet()) {
+            int index = stored.getColumnIndex(column.getKey());
+            if (index != -1 && isStoredValue(stored, index, column.getValue())) {
+                changedValues.remove(column.getKey());
+            }
+        }
+        return changedValues;
+    }
+
+    private static boolean isStoredValue(Cursor stored, int index, Object value) {
+        if (stored.isNull(index)) {
+            return value == null;
+        } else if (value == null) {
+            return false;
+        } else if (value instanceof Number) {
+            // Numbers are compared as doubles, so that e.g an int put in a REAL column like
+            // humidity still matches what comes back
+            return stored.getDouble(index) == ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            return value.equals(stored.getString(index));
+        } else if (value instanceof Boolean) {
+            return stored.getInt(index) == ((Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            return Arrays.equals(stored.getBlob(index), (byte[]) value);
+        }
+        return false;
+    }
+}
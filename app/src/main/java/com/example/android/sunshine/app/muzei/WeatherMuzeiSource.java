@@ -16,13 +16,14 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ConsumerRegistry;
+import com.example.android.sunshine.app.sync.NetworkPolicy;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.TodaySnapshot;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
@@ -30,14 +31,6 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -48,32 +41,50 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            // Use today's weather the sync sent along rather than querying for it again
+            TodaySnapshot today =
+                    TodaySnapshot.fromIntent(intent, Utility.getPreferredLocation(this));
+            if (today != null) {
+                publishToday(today);
+            } else {
+                onUpdate(UPDATE_REASON_OTHER);
+            }
         }
     }
 
+    @Override
+    protected void onEnabled() {
+        super.onEnabled();
+        ConsumerRegistry.setRegistered(this, ConsumerRegistry.CONSUMER_MUZEI, true);
+    }
+
+    @Override
+    protected void onDisabled() {
+        super.onDisabled();
+        ConsumerRegistry.setRegistered(this, ConsumerRegistry.CONSUMER_MUZEI, false);
+    }
+
     @Override
     protected void onUpdate(int reason) {
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        TodaySnapshot today = TodaySnapshot.query(this, Utility.getPreferredLocation(this));
+        if (today != null) {
+            publishToday(today);
+        }
+    }
 
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+    private void publishToday(TodaySnapshot today) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(today.weatherId);
+        // Only publish a new wallpaper if we have a valid image, and Muzei can download it
+        // without running up the user's data bill.  The current one stays up until then.
+        if (imageUrl != null && !NetworkPolicy.forActiveNetwork(this).allowsArt()) {
+            NetworkPolicy.onArtSkipped(this);
+        } else if (imageUrl != null) {
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(Uri.parse(imageUrl))
+                    .title(today.description)
+                    .byline(today.locationSetting)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
         }
-        cursor.close();
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/**
+ * Stops the sync from asking the forecast source for anything while it's failing.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens: no request goes out
+ * until a backoff has passed, so syncs triggered in the meantime, manual ones included, return
+ * without using the radio.  The backoff doubles every time the breaker opens again, up to
+ * {@link #MAX_BACKOFF_MILLIS}, and is jittered so devices that saw the same outage don't all
+ * come back at once.  Once it has passed the breaker is half open: a single request is let
+ * through to probe the source, closing the breaker if it succeeds and opening it again for
+ * longer if it fails.
+ *
+ * The state is kept in the shared preferences, so it outlives the sync process, and the UI can
+ * tell when the next attempt will be, see {@link #getRetryAt}.
+ */
+public class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    // Failures in a row it takes to open the breaker.  The locations of a sync are fetched in
+    // parallel, a single one failing may just be bad luck.
+    static final int FAILURE_THRESHOLD = 2;
+    static final long BASE_BACKOFF_MILLIS = 1000L * 60;
+    static final long MAX_BACKOFF_MILLIS = 1000L * 60 * 60 * 4;
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    private final Context mContext;
+    private final Random mRandom;
+    // Failures since the last success
+    private int mFailures;
+    // Times the breaker opened since the last success
+    private int mTrips;
+    // When the breaker lets a probe through, 0 while it's closed
+    private long mRetryAt;
+    // Whether the probe is out
+    private boolean mProbing;
+
+    CircuitBreaker(Context context, Random random) {
+        mContext = context;
+        mRandom = random;
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        mFailures = sp.getInt(context.getString(R.string.pref_breaker_failures_key), 0);
+        mTrips = sp.getInt(context.getString(R.string.pref_breaker_trips_key), 0);
+        mRetryAt = sp.getLong(context.getString(R.string.pref_breaker_retry_at_key), 0);
+    }
+
+    /**
+     * @return whether a request may go out now.  If it's the probe of a half open breaker,
+     * its outcome must be reported, or {@link #onAbandoned} called.
+     */
+    synchronized boolean allowRequest(long now) {
+        switch (getState(now)) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_HALF_OPEN:
+                mProbing = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records that the source answered, which closes the breaker.
+     */
+    synchronized void onSuccess() {
+        mProbing = false;
+        if (mFailures == 0 && mTrips == 0 && mRetryAt == 0) {
+            return;
+        }
+        if (mRetryAt != 0) {
+            Log.d(LOG_TAG, "Forecast source is back, closing after " + mTrips + " trips");
+        }
+        mFailures = 0;
+        mTrips = 0;
+        mRetryAt = 0;
+        save();
+    }
+
+    /**
+     * Records that the source failed to answer, or answered with garbage.
+     */
+    synchronized void onFailure(long now) {
+        mProbing = false;
+        if (mRetryAt != 0 && now < mRetryAt) {
+            // A request that went out before the breaker opened, it's already backing off
+            return;
+        }
+        mFailures++;
+        // A failed probe opens it again straight away
+        if (mRetryAt != 0 || mFailures >= FAILURE_THRESHOLD) {
+            mTrips++;
+            mRetryAt = now + getBackoffMillis(mTrips, mRandom.nextDouble());
+            Log.d(LOG_TAG, "Forecast source failing, backing off for " +
+                    (mRetryAt - now) / 1000 + " s");
+        }
+        save();
+    }
+
+    /**
+     * Records that a request let through was given up before the source answered either way.
+     */
+    synchronized void onAbandoned() {
+        mProbing = false;
+    }
+
+    synchronized int getState(long now) {
+        if (mRetryAt == 0) {
+            return STATE_CLOSED;
+        }
+        return now < mRetryAt || mProbing ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * @param trips how many times in a row the breaker opened, this time included
+     * @param jitter between 0 and 1
+     * @return the backoff, between half and all of the exponential backoff for this many trips
+     */
+    static long getBackoffMillis(int trips, double jitter) {
+        long backoff = BASE_BACKOFF_MILLIS << Math.min(Math.max(0, trips - 1), 20);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        return backoff / 2 + (long) (jitter * (backoff / 2));
+    }
+
+    // This function should not be called from the UI thread because it uses commit to write to
+    // the shared preferences
+    private void save() {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
+        sp.edit()
+                .putInt(mContext.getString(R.string.pref_breaker_failures_key), mFailures)
+                .putInt(mContext.getString(R.string.pref_breaker_trips_key), mTrips)
+                .putLong(mContext.getString(R.string.pref_breaker_retry_at_key), mRetryAt)
+                .commit();
+    }
+
+    /**
+     * @param c Context used to get the SharedPreferences
+     * @return from when the sync may try the forecast source again, which may be past already,
+     * or 0 if it isn't backing off
+     */
+    public static long getRetryAt(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_breaker_retry_at_key), 0);
+    }
+}
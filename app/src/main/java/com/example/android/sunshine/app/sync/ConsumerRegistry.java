@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of what consumes the synced weather, so the periodic sync can stop when nothing
+ * does.
+ *
+ * A consumer counts as active while it's there to show the weather: a widget on the home
+ * screen, the Muzei source enabled, the notifications turned on, or, for the app and the watch
+ * face, if it was looked at in the last {@link #DORMANT_AFTER_MILLIS}.  {@link SyncScheduler}
+ * suspends the periodic sync when none is, and the first consumer to ask for the weather again
+ * resumes it, see {@link #onDemand}.
+ *
+ * The notifications only need the weather once a day, and the phone only hears from the watch
+ * face when it syncs: with nothing else active, the periodic sync is only lengthened for them.
+ *
+ * The notifications count for as long as they're turned on, whether anybody reads them or not:
+ * the sync is what posts them, so they can't be told apart from a consumer gone quiet the way
+ * the app can.  They are on by default, so in practice the periodic sync is only suspended for
+ * users who turned them off, and only ever stretched to its longest interval for the others.
+ */
+public class ConsumerRegistry {
+    private static final String LOG_TAG = ConsumerRegistry.class.getSimpleName();
+
+    public static final String CONSUMER_APP = "app";
+    public static final String CONSUMER_TODAY_WIDGET = "today_widget";
+    public static final String CONSUMER_DETAIL_WIDGET = "detail_widget";
+    public static final String CONSUMER_MUZEI = "muzei";
+    public static final String CONSUMER_WEAR = "wear";
+    public static final String CONSUMER_NOTIFICATIONS = "notifications";
+
+    // How long after it was last looked at the app, or the watch face, stops counting
+    static final long DORMANT_AFTER_MILLIS = 1000L * 60 * 60 * 24 * 3;
+
+    /**
+     * Records that a consumer wants the weather, and resumes the periodic sync if it was
+     * suspended.
+     * @param c Context to get the PreferenceManager from.
+     */
+    public static synchronized void onDemand(Context c, String consumer) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_consumer_demand_key);
+        Map<String, Long> demands = parseDemands(sp.getString(key, ""));
+        demands.put(consumer, System.currentTimeMillis());
+        sp.edit().putString(key, formatDemands(demands)).apply();
+
+        if (clearSuspended(c)) {
+            Log.d(LOG_TAG, "Resuming the periodic sync for " + consumer);
+            SunshineSyncAdapter.configurePeriodicSync(c, SyncScheduler.getSyncInterval(c),
+                    SyncScheduler.getSyncInterval(c) / 3);
+            // Whatever is stored is likely days old by now
+            SunshineSyncAdapter.syncImmediately(c);
+        }
+    }
+
+    /**
+     * Records that a consumer that stays around, like the Muzei source, is there or not, and
+     * counts the former as a demand.
+     * @param c Context to get the PreferenceManager from.
+     */
+    public static synchronized void setRegistered(Context c, String consumer,
+                                                  boolean registered) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_consumers_registered_key);
+        Set<String> consumers = parseRegistered(sp.getString(key, ""));
+        if (registered ? consumers.add(consumer) : consumers.remove(consumer)) {
+            sp.edit().putString(key, new JSONArray(consumers).toString()).apply();
+        }
+        if (registered) {
+            onDemand(c, consumer);
+        }
+    }
+
+    /**
+     * @param context Context used to get the SharedPreferences and the AppWidgetManager
+     * @param watchFaceLastSeen when the watch face was last shown, in milliseconds, or 0
+     * @return the consumers that still want the weather, the notifications among them whenever
+     * they're turned on
+     */
+    static Set<String> getActiveConsumers(Context context, long watchFaceLastSeen) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> present = parseRegistered(
+                sp.getString(context.getString(R.string.pref_consumers_registered_key), ""));
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        if (appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0) {
+            present.add(CONSUMER_TODAY_WIDGET);
+        }
+        if (appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0) {
+            present.add(CONSUMER_DETAIL_WIDGET);
+        }
+        if (sp.getBoolean(context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)))) {
+            present.add(CONSUMER_NOTIFICATIONS);
+        }
+
+        Map<String, Long> demands = parseDemands(
+                sp.getString(context.getString(R.string.pref_consumer_demand_key), ""));
+        demands.put(CONSUMER_WEAR, watchFaceLastSeen);
+        return getActiveConsumers(present, demands, System.currentTimeMillis());
+    }
+
+    /**
+     * @param present the consumers that are there, whenever they were last looked at
+     * @param demands when each consumer last asked for the weather, in milliseconds
+     */
+    static Set<String> getActiveConsumers(Set<String> present, Map<String, Long> demands,
+                                          long now) {
+        Set<String> active = new LinkedHashSet<String>(present);
+        for (String consumer : new String[]{CONSUMER_APP, CONSUMER_WEAR}) {
+            Long lastDemand = demands.get(consumer);
+            if (lastDemand != null && now - lastDemand < DORMANT_AFTER_MILLIS) {
+                active.add(consumer);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @return whether the periodic sync is suspended for lack of consumers
+     */
+    public static boolean isSuspended(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getBoolean(c.getString(R.string.pref_sync_suspended_key), false);
+    }
+
+    /**
+     * Stops the periodic sync until a consumer asks for the weather.  This function should not
+     * be called from the UI thread because it uses commit to write to the shared preferences.
+     */
+    static synchronized void suspend(Context c) {
+        if (isSuspended(c)) {
+            return;
+        }
+        Log.d(LOG_TAG, "Nothing consumes the weather, suspending the periodic sync");
+        Account account = SunshineSyncAdapter.getSyncAccount(c);
+        ContentResolver.removePeriodicSync(account, c.getString(R.string.content_authority),
+                new Bundle());
+        PreferenceManager.getDefaultSharedPreferences(c).edit()
+                .putBoolean(c.getString(R.string.pref_sync_suspended_key), true)
+                .commit();
+    }
+
+    /**
+     * @return whether the periodic sync was suspended.  It's up to the caller to set it up again.
+     */
+    static synchronized boolean clearSuspended(Context c) {
+        if (!isSuspended(c)) {
+            return false;
+        }
+        PreferenceManager.getDefaultSharedPreferences(c).edit()
+                .putBoolean(c.getString(R.string.pref_sync_suspended_key), false)
+                .apply();
+        return true;
+    }
+
+    // The demands are stored as a JSON object of consumer to time
+    static Map<String, Long> parseDemands(String demands) {
+        Map<String, Long> parsed = new HashMap<String, Long>();
+        if (TextUtils.isEmpty(demands)) {
+            return parsed;
+        }
+        try {
+            JSONObject object = new JSONObject(demands);
+            Iterator<String> consumers = object.keys();
+            while (consumers.hasNext()) {
+                String consumer = consumers.next();
+                parsed.put(consumer, object.getLong(consumer));
+            }
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Dropping malformed consumer demands", e);
+            parsed.clear();
+        }
+        return parsed;
+    }
+
+    static String formatDemands(Map<String, Long> demands) {
+        return new JSONObject(demands).toString();
+    }
+
+    private static Set<String> parseRegistered(String registered) {
+        Set<String> parsed = new HashSet<String>();
+        if (TextUtils.isEmpty(registered)) {
+            return parsed;
+        }
+        try {
+            JSONArray array = new JSONArray(registered);
+            for (int i = 0; i < array.length(); i++) {
+                parsed.add(array.getString(i));
+            }
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Dropping malformed registered consumers", e);
+            parsed.clear();
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.res.AssetManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Replays recorded forecasts instead of going to the network, so the parse and insert side of
+ * the sync can be benchmarked deterministically and at any rate.
+ *
+ * The forecast of a location is read from fixtures/&lt;city id&gt;.json, or
+ * fixtures/&lt;location setting&gt;.json while the city id isn't known, in the assets, falling
+ * back to fixtures/default.json.  A location with neither is answered with a 404.  Fixtures are
+ * only read once, then served from memory.
+ */
+class FixtureForecastSource implements ForecastSource {
+
+    static final String FIXTURE_DIR = "fixtures";
+    static final String DEFAULT_FIXTURE = "default";
+    private static final String FIXTURE_EXTENSION = ".json";
+
+    private static final byte[] NOT_FOUND_BODY =
+            "{\"cod\":\"404\",\"message\":\"no fixture\"}".getBytes();
+
+    private final AssetManager mAssets;
+    private final ConcurrentMap<String, byte[]> mFixtures = new ConcurrentHashMap<String, byte[]>();
+
+    FixtureForecastSource(AssetManager assets) {
+        mAssets = assets;
+    }
+
+    @Override
+    public Response fetch(String locationSetting, Long cityId, int days,
+                          Map<String, String> requestHeaders) throws IOException {
+        byte[] body = getFixture(cityId != null ? Long.toString(cityId) : locationSetting);
+        if (body == null) {
+            body = getFixture(DEFAULT_FIXTURE);
+        }
+        return body != null
+                ? new FixtureResponse(HttpURLConnection.HTTP_OK, body)
+                : new FixtureResponse(HttpURLConnection.HTTP_NOT_FOUND, NOT_FOUND_BODY);
+    }
+
+    /**
+     * @return the fixture of the given name, or null if there is none
+     */
+    private byte[] getFixture(String name) throws IOException {
+        byte[] fixture = mFixtures.get(name);
+        if (fixture != null) {
+            return fixture;
+        }
+        InputStream in;
+        try {
+            in = openFixture(name);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            fixture = bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+        mFixtures.put(name, fixture);
+        return fixture;
+    }
+
+    /**
+     * @throws FileNotFoundException if there is no fixture of that name
+     */
+    InputStream openFixture(String name) throws IOException {
+        return mAssets.open(FIXTURE_DIR + "/" + name + FIXTURE_EXTENSION);
+    }
+
+    private static class FixtureResponse implements Response {
+        private final int mResponseCode;
+        private final byte[] mBody;
+        private long mReadNanos;
+        private long mBytesRead;
+
+        FixtureResponse(int responseCode, byte[] body) {
+            mResponseCode = responseCode;
+            mBody = body;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return null;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(mBody) {
+                @Override
+                public synchronized int read() {
+                    int b = super.read();
+                    if (b != -1) {
+                        mBytesRead++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public synchronized int read(byte[] buffer, int offset, int count) {
+                    long start = System.nanoTime();
+                    int read = super.read(buffer, offset, count);
+                    mReadNanos += System.nanoTime() - start;
+                    if (read > 0) {
+                        mBytesRead += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public long getConnectNanos() {
+            return 0;
+        }
+
+        @Override
+        public long getFirstByteNanos() {
+            return 0;
+        }
+
+        @Override
+        public long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public long getBytesRead() {
+            return mBytesRead;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP transport used by the sync to talk to OpenWeatherMap.
+ *
+ * Compared to opening a bare HttpURLConnection per sync it:
+ * <ul>
+ *     <li>asks for a gzip encoded body and decodes it itself, so the (very repetitive) JSON
+ *     forecast crosses the network compressed;</li>
+ *     <li>never disconnects a healthy connection.  Bodies are read to the end and closed, which
+ *     hands the socket back to the platform's keep-alive pool, so consecutive requests to the
+ *     same host skip the TCP (and TLS) handshake;</li>
+ *     <li>bounds how long a connect or a read may block;</li>
+ *     <li>counts requests and bytes, both as received and once decoded, and times each
+ *     response's connect, first byte and download.</li>
+ * </ul>
+ * One instance is meant to be shared by every sync of the process.
+ */
+class ForecastHttpClient {
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // A body left unread beyond this is not worth draining to keep its connection alive
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final String ENCODING_GZIP = "gzip";
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+
+    ForecastHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    ForecastHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Issues a GET and waits for the response headers.
+     *
+     * @param url the resource to fetch
+     * @param requestHeaders extra request headers, may be null
+     * @return the response.  It must be closed once the caller is done with it.
+     * @throws IOException if the server could not be reached or timed out
+     */
+    Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept-Encoding", ENCODING_GZIP);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        mRequestCount.incrementAndGet();
+        try {
+            long start = System.nanoTime();
+            connection.connect();
+            long connected = System.nanoTime();
+            int responseCode = connection.getResponseCode();
+            return new Response(connection, responseCode, connected - start,
+                    System.nanoTime() - connected);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of requests issued so far
+     */
+    long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the number of body bytes received so far, as they came over the network
+     */
+    long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    /**
+     * @return the number of body bytes handed to callers so far, once decoded
+     */
+    long getBytesDecoded() {
+        return mBytesDecoded.get();
+    }
+
+    /**
+     * A response whose headers have been received.  The body is only read on demand.
+     */
+    class Response implements ForecastSource.Response {
+        private final HttpURLConnection mConnection;
+        private final int mResponseCode;
+        private final long mConnectNanos;
+        private final long mFirstByteNanos;
+        private CountingInputStream mRawBody;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        Response(HttpURLConnection connection, int responseCode, long connectNanos,
+                 long firstByteNanos) {
+            mConnection = connection;
+            mResponseCode = responseCode;
+            mConnectNanos = connectNanos;
+            mFirstByteNanos = firstByteNanos;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * @return how long it took to get a connection to the server, next to nothing when an
+         * idle one was reused
+         */
+        @Override
+        public long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /**
+         * @return how long the server took to answer once connected, until the headers were in
+         */
+        @Override
+        public long getFirstByteNanos() {
+            return mFirstByteNanos;
+        }
+
+        /**
+         * @return the time spent waiting for the body so far
+         */
+        @Override
+        public synchronized long getReadNanos() {
+            return mRawBody != null ? mRawBody.getReadNanos() : 0;
+        }
+
+        /**
+         * @return the number of body bytes of this response received so far, as they came over
+         * the network
+         */
+        @Override
+        public synchronized long getBytesRead() {
+            return mRawBody != null ? mRawBody.getCount() : 0;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded body of the response.  Error responses return their error
+         * body, and a response without body returns an empty stream.
+         */
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream stream = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream()
+                        : mConnection.getInputStream();
+                if (stream == null) {
+                    stream = new ByteArrayInputStream(new byte[0]);
+                }
+                mRawBody = new CountingInputStream(stream, mBytesReceived);
+                InputStream decoded = mRawBody;
+                if (ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    decoded = new GZIPInputStream(decoded);
+                }
+                mBody = new CountingInputStream(decoded, mBytesDecoded);
+            }
+            return mBody;
+        }
+
+        /**
+         * Releases the response.  What's left of a short body is read off first so that the
+         * connection can be reused by the next request.
+         */
+        @Override
+        public synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (mRawBody == null) {
+                    getBody();
+                }
+                if (drain(mRawBody)) {
+                    mBody.close();
+                } else {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                // The connection is in an unknown state, don't let anybody else reuse it
+                mConnection.disconnect();
+            }
+        }
+
+        /**
+         * Tears down the connection, unblocking a read in progress on another thread.  The
+         * connection is not reused.
+         */
+        @Override
+        public void abort() {
+            mConnection.disconnect();
+        }
+
+        private boolean drain(InputStream in) throws IOException {
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Adds the number of bytes read through it to a counter, and keeps its own count of them
+     * and of the time spent reading.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+        private volatile long mCount;
+        private volatile long mReadNanos;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        private void count(long bytes, long start) {
+            mReadNanos += System.nanoTime() - start;
+            if (bytes > 0) {
+                mCount += bytes;
+                mCounter.addAndGet(bytes);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            count(b != -1 ? 1 : 0, start);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            count(read, start);
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long start = System.nanoTime();
+            long skipped = super.skip(byteCount);
+            count(skipped, start);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token-based parser for the OpenWeatherMap daily forecast response.
+ *
+ * Instead of reading the whole body into a String and building a JSONObject tree, the
+ * parser pulls the "city" block and each element of the "list" array straight off the
+ * stream and hands them to a {@link Callback} one at a time, so only one day's record is
+ * materialized at any moment.  An error "cod" stops the parse before the rest of the body
+ * is read.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class ForecastJsonParser {
+
+    /**
+     * Receives the pieces of the forecast as they come off the stream.
+     */
+    interface Callback {
+        /**
+         * Called once the "city" block has been read, before the first {@link #onDay}.
+         *
+         * @param cityId the OWM id of the city, or 0 if the response didn't carry one
+         */
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        /**
+         * Called for each element of the "list" array, in order.
+         *
+         * @param dayIndex position of the day in the forecast, 0 being today
+         * @param weatherValues the weather columns of the day.  The location key and the date
+         *                      are left for the callback to fill in.
+         */
+        void onDay(int dayIndex, ContentValues weatherValues);
+    }
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // The weather table has no defaults, so a day missing any of these can't be stored
+    private static final String[] REQUIRED_DAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    /**
+     * Parses the forecast on the given stream.  The stream is not closed.
+     *
+     * @return the "cod" reported by the server, or {@link HttpURLConnection#HTTP_OK} if the
+     * response did not carry one.  Anything other than HTTP_OK means the parse stopped early
+     * and no day was delivered.
+     * @throws JSONException if the response is not a well formed forecast
+     * @throws IOException if the stream could not be read
+     */
+    int parse(InputStream in, Callback callback) throws JSONException, IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, callback);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens and non numeric values this way
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private int readForecast(JsonReader reader, Callback callback)
+            throws JSONException, IOException {
+        boolean cityRead = false;
+        boolean listRead = false;
+        // OWM sends "city" ahead of "list", but if that ever changes the days are held
+        // back until the city is known.  That's at most one forecast's worth of rows.
+        List<ContentValues> pendingDays = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // nextInt also accepts the quoted form, e.g "cod":"404"
+                int errorCode = reader.nextInt();
+                if (errorCode != HttpURLConnection.HTTP_OK) {
+                    return errorCode;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+                cityRead = true;
+                if (pendingDays != null) {
+                    for (int i = 0; i < pendingDays.size(); i++) {
+                        callback.onDay(i, pendingDays.get(i));
+                    }
+                    pendingDays = null;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                if (!cityRead) {
+                    pendingDays = new ArrayList<ContentValues>();
+                }
+                int dayIndex = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    ContentValues weatherValues = readDay(reader);
+                    if (cityRead) {
+                        callback.onDay(dayIndex, weatherValues);
+                    } else {
+                        pendingDays.add(weatherValues);
+                    }
+                    dayIndex++;
+                }
+                reader.endArray();
+                listRead = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!cityRead || !listRead) {
+            throw new JSONException("Forecast is missing the " + (cityRead ? OWM_LIST : OWM_CITY));
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private void readCity(JsonReader reader, Callback callback)
+            throws JSONException, IOException {
+        long cityId = 0;
+        String cityName = null;
+        double cityLatitude = 0;
+        double cityLongitude = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) {
+            throw new JSONException("Forecast city is missing its " + OWM_CITY_NAME);
+        }
+        callback.onCity(cityId, cityName, cityLatitude, cityLongitude);
+    }
+
+    private ContentValues readDay(JsonReader reader) throws JSONException, IOException {
+        ContentValues weatherValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readWeather(reader, weatherValues);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (String column : REQUIRED_DAY_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new JSONException("Forecast day is missing " + column);
+            }
+        }
+        return weatherValues;
+    }
+
+    private void readWeather(JsonReader reader, ContentValues weatherValues) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
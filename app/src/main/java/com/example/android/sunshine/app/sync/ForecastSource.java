@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Where the sync gets its forecasts from.
+ *
+ * The sync only ever sees OWM's daily forecast JSON and an HTTP-like response code, so the
+ * forecasts can come from OpenWeatherMap itself, from a server of our own or from recorded
+ * payloads, without the parse and insert side knowing the difference.  The one in use is chosen
+ * per build type, see {@link SunshineSyncAdapter#createForecastSource}.
+ */
+interface ForecastSource {
+
+    // Values of BuildConfig.FORECAST_SOURCE
+    String SOURCE_HTTP = "http";
+    String SOURCE_FIXTURE = "fixture";
+
+    /**
+     * Fetches the daily forecast of a location.
+     *
+     * @param locationSetting the location string as the user entered it
+     * @param cityId OWM's id of the city, or null if it isn't known yet
+     * @param days how many days of forecast to ask for
+     * @param requestHeaders extra request headers, e.g validators, may be null
+     * @return the response.  It must be closed once the caller is done with it.
+     * @throws IOException if the forecast could not be fetched at all
+     */
+    Response fetch(String locationSetting, Long cityId, int days,
+                   Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * A forecast response whose status is known.  The body is only read on demand.
+     */
+    interface Response {
+        int getResponseCode();
+
+        String getHeaderField(String name);
+
+        /**
+         * @return the decoded body of the response, an empty stream if it has none
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @return how long it took to get a connection to the source
+         */
+        long getConnectNanos();
+
+        /**
+         * @return how long the source took to answer once connected
+         */
+        long getFirstByteNanos();
+
+        /**
+         * @return the time spent waiting for the body so far
+         */
+        long getReadNanos();
+
+        /**
+         * @return the number of body bytes received so far, before decoding
+         */
+        long getBytesRead();
+
+        /**
+         * Releases the response.
+         */
+        void close();
+
+        /**
+         * Gives up on the response, unblocking a read in progress on another thread.
+         */
+        void abort();
+    }
+}
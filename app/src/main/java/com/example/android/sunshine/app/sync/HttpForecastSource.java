@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Fetches forecasts from OpenWeatherMap's daily forecast API, or from any server that answers
+ * like it at another base URL, such as a local one replaying recorded payloads under load.
+ */
+class HttpForecastSource implements ForecastSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String QUERY_PARAM = "q";
+    private static final String CITY_ID_PARAM = "id";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final ForecastHttpClient mClient;
+    private final String mBaseUrl;
+    private final String mApiKey;
+
+    /**
+     * @param client the transport, shared with every other sync of the process
+     * @param baseUrl e.g "http://api.openweathermap.org/data/2.5/forecast/daily?"
+     * @param apiKey the OWM API key sent with every request
+     */
+    HttpForecastSource(ForecastHttpClient client, String baseUrl, String apiKey) {
+        mClient = client;
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public Response fetch(String locationSetting, Long cityId, int days,
+                          Map<String, String> requestHeaders) throws IOException {
+        return mClient.get(buildUrl(locationSetting, cityId, days), requestHeaders);
+    }
+
+    URL buildUrl(String locationSetting, Long cityId, int days) throws IOException {
+        // Once OWM has told us which city the setting stands for, ask for that city directly
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(cityId != null ? CITY_ID_PARAM : QUERY_PARAM,
+                        cityId != null ? Long.toString(cityId) : locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(days))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+        return new URL(builtUri.toString());
+    }
+}
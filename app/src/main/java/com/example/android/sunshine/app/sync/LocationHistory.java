@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which locations the user picks, and when, to tell which ones are worth keeping
+ * fresh in the background so that switching back to them shows their forecast straight away.
+ *
+ * Each pick counts for less as it ages, half as much every {@link #HALF_LIFE_MILLIS}, so both a
+ * location picked often and one picked lately rank high.  The periodic sync refreshes the
+ * preferred location and up to R.integer.sync_prefetch_locations others, the best ranked first.
+ */
+public class LocationHistory {
+    private static final String LOG_TAG = LocationHistory.class.getSimpleName();
+
+    static final long HALF_LIFE_MILLIS = 1000L * 60 * 60 * 24 * 7;
+    private static final int MAX_HISTORY_ENTRIES = 64;
+
+    /**
+     * A location the user picked, and when.
+     */
+    static class Pick {
+        final String locationSetting;
+        final long time;
+
+        Pick(String locationSetting, long time) {
+            this.locationSetting = locationSetting;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Records that the user picked a location.
+     * @param c Context to get the PreferenceManager from.
+     */
+    public static synchronized void recordPick(Context c, String locationSetting) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_location_history_key);
+        List<Pick> history = parseHistory(sp.getString(key, ""));
+        history.add(new Pick(locationSetting, System.currentTimeMillis()));
+        while (history.size() > MAX_HISTORY_ENTRIES) {
+            history.remove(0);
+        }
+        sp.edit().putString(key, formatHistory(history)).apply();
+    }
+
+    /**
+     * @param c Context to get the PreferenceManager from.
+     * @param knownLocations the locations that could be prefetched, in the order to take them in
+     *                       if their history doesn't tell them apart, each with the id of the
+     *                       location holding its weather
+     * @param preferredLocation left out, it's always synced
+     * @return the locations to keep fresh besides the preferred one, most used first.  Of
+     * locations sharing their weather only the most used is taken, none if one is preferred.
+     */
+    static List<String> getPrefetchLocations(Context c, Map<String, Long> knownLocations,
+                                             String preferredLocation) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        List<Pick> history = parseHistory(
+                sp.getString(c.getString(R.string.pref_location_history_key), ""));
+        return getPrefetchLocations(knownLocations, preferredLocation,
+                getScores(history, System.currentTimeMillis()),
+                c.getResources().getInteger(R.integer.sync_prefetch_locations));
+    }
+
+    static List<String> getPrefetchLocations(Map<String, Long> knownLocations,
+                                             String preferredLocation,
+                                             Map<String, Double> scores, int budget) {
+        List<String> candidates = new ArrayList<String>(knownLocations.keySet());
+        candidates.remove(preferredLocation);
+        Set<Long> taken = new HashSet<Long>();
+        if (knownLocations.containsKey(preferredLocation)) {
+            taken.add(knownLocations.get(preferredLocation));
+        }
+
+        List<String> prefetchLocations = new ArrayList<String>();
+        for (String locationSetting : rank(candidates, scores, candidates.size())) {
+            if (prefetchLocations.size() >= budget) {
+                break;
+            }
+            if (taken.add(knownLocations.get(locationSetting))) {
+                prefetchLocations.add(locationSetting);
+            }
+        }
+        return prefetchLocations;
+    }
+
+    static Map<String, Double> getScores(List<Pick> history, long now) {
+        Map<String, Double> scores = new HashMap<String, Double>();
+        for (Pick pick : history) {
+            double weight = Math.pow(0.5, (double) Math.max(0, now - pick.time) / HALF_LIFE_MILLIS);
+            Double score = scores.get(pick.locationSetting);
+            scores.put(pick.locationSetting, score == null ? weight : score + weight);
+        }
+        return scores;
+    }
+
+    /**
+     * @return up to budget of the candidates, best scored first.  Candidates never picked come
+     * last, in the order given.
+     */
+    static List<String> rank(List<String> candidates, final Map<String, Double> scores,
+                             int budget) {
+        List<String> ranked = new ArrayList<String>(candidates);
+        // The sort is stable, ties keep their order
+        Collections.sort(ranked, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return Double.compare(getScore(rhs), getScore(lhs));
+            }
+
+            private double getScore(String locationSetting) {
+                Double score = scores.get(locationSetting);
+                return score == null ? 0 : score;
+            }
+        });
+        return ranked.subList(0, Math.max(0, Math.min(budget, ranked.size())));
+    }
+
+    // The history is stored as a JSON array of [location setting, time] pairs, as a location
+    // setting can hold about any character
+    static List<Pick> parseHistory(String history) {
+        List<Pick> picks = new ArrayList<Pick>();
+        if (TextUtils.isEmpty(history)) {
+            return picks;
+        }
+        try {
+            JSONArray entries = new JSONArray(history);
+            for (int i = 0; i < entries.length(); i++) {
+                JSONArray entry = entries.getJSONArray(i);
+                picks.add(new Pick(entry.getString(0), entry.getLong(1)));
+            }
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Dropping malformed location history", e);
+            picks.clear();
+        }
+        return picks;
+    }
+
+    static String formatHistory(List<Pick> history) {
+        JSONArray entries = new JSONArray();
+        for (Pick pick : history) {
+            entries.put(new JSONArray().put(pick.locationSetting).put(pick.time));
+        }
+        return entries.toString();
+    }
+}
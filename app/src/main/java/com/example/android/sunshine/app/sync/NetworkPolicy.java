@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.telephony.TelephonyManager;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Decides how much a sync may download on the network the device is on.
+ *
+ * On a metered, roaming or slow (2G) network a sync only asks for the first
+ * {@link #CONSTRAINED_FORECAST_DAYS} days of the forecast, and no art is downloaded for the
+ * notification or for Muzei.  A sync cut short that way asks for the rest once the device is
+ * on an unmetered network, see {@link SunshineSyncAdapter#requestTopUpSync}.  The bytes not
+ * downloaded are estimated and counted, as are the art downloads skipped.
+ */
+public class NetworkPolicy {
+
+    // How many days of forecast a sync asks for on a constrained network
+    static final int CONSTRAINED_FORECAST_DAYS = 3;
+
+    private final boolean mMetered;
+    private final boolean mRoaming;
+    private final boolean mSlow;
+
+    NetworkPolicy(boolean metered, boolean roaming, boolean slow) {
+        mMetered = metered;
+        mRoaming = roaming;
+        mSlow = slow;
+    }
+
+    /**
+     * @param context Context used to get the ConnectivityManager
+     * @return the policy for the network currently in use
+     */
+    public static NetworkPolicy forActiveNetwork(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork == null) {
+            // Whatever we do won't go far, no need to hold back
+            return new NetworkPolicy(false, false, false);
+        }
+        return new NetworkPolicy(ConnectivityManagerCompat.isActiveNetworkMetered(cm),
+                activeNetwork.isRoaming(),
+                isSlowNetwork(activeNetwork.getType(), activeNetwork.getSubtype()));
+    }
+
+    static boolean isSlowNetwork(int type, int subtype) {
+        if (type != ConnectivityManager.TYPE_MOBILE) {
+            return false;
+        }
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return whether the sync should hold back on this network
+     */
+    public boolean isConstrained() {
+        return mMetered || mRoaming || mSlow;
+    }
+
+    /**
+     * @param fullDays how many days of forecast a sync asks for when it can
+     * @return how many days to ask for on this network
+     */
+    int getForecastDays(int fullDays) {
+        return isConstrained() ? Math.min(fullDays, CONSTRAINED_FORECAST_DAYS) : fullDays;
+    }
+
+    /**
+     * @return whether art may be downloaded on this network
+     */
+    public boolean allowsArt() {
+        return !isConstrained();
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkPolicy{metered=" + mMetered + ", roaming=" + mRoaming +
+                ", slow=" + mSlow + "}";
+    }
+
+    /**
+     * Estimates what the full forecast would have cost from what the reduced one did.
+     *
+     * @param bytesRead the bytes received for the reduced forecast
+     * @return the bytes not downloaded, about
+     */
+    static long estimateBytesSaved(long bytesRead, int daysFetched, int fullDays) {
+        if (daysFetched <= 0 || daysFetched >= fullDays) {
+            return 0;
+        }
+        return bytesRead * (fullDays - daysFetched) / daysFetched;
+    }
+
+    /**
+     * Counts forecast bytes not downloaded.  This function should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
+     */
+    static synchronized void addBytesSaved(Context c, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_network_bytes_saved_key);
+        sp.edit().putLong(key, sp.getLong(key, 0) + bytes).commit();
+    }
+
+    /**
+     * Counts an art download skipped.  This function should not be called from the UI thread
+     * because it uses commit to write to the shared preferences.
+     */
+    public static synchronized void onArtSkipped(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_network_art_skipped_key);
+        sp.edit().putLong(key, sp.getLong(key, 0) + 1).commit();
+    }
+
+    /**
+     * @param c Context used to get the SharedPreferences
+     * @return about how many forecast bytes were not downloaded on constrained networks
+     */
+    public static long getBytesSaved(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_network_bytes_saved_key), 0);
+    }
+
+    /**
+     * @param c Context used to get the SharedPreferences
+     * @return how many art downloads were skipped on constrained networks
+     */
+    public static long getArtSkippedCount(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_network_art_skipped_key), 0);
+    }
+}
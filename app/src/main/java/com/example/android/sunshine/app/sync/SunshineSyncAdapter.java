@@ -3,12 +3,12 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -17,6 +17,7 @@ import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -44,6 +45,9 @@ import com.google.android.gms.common.api.ResultCallbacks;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
@@ -60,9 +64,24 @@ import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
@@ -74,6 +93,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
     public static final String LOWEST_TEMPERATURE_KEY = "lowestTemperature";
     public static final String WEATHER_ICON_KEY = "weatherIcon";
     public static final String TIME_KEY = "Time";
+    // Put by the watch face, with a TIME_KEY, when it has been shown
+    public static final String WATCH_FACE_SEEN_PATH = "/sunshine_watch_face_seen";
 
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -83,27 +104,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    private static final long LOCATION_THREAD_KEEP_ALIVE_SECONDS = 30;
+    private static final long WEARABLE_TIMEOUT_SECONDS = 5;
+    // How many days of forecast a sync asks for
+    static final int FORECAST_DAYS = 14;
+    // How many days the first phase of a cold start asks for: just today
+    static final int COLD_START_DAYS = 1;
+
+    // Sync extra: whether to refresh the locations kept fresh in the background, see
+    // LocationHistory, rather than only the preferred one.  Defaults to true for periodic
+    // syncs and false for manual ones.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sunshine_all_locations";
+    // Sync extra: set on the sync fetching the full forecast after one that had to hold back
+    // on a constrained network, see NetworkPolicy
+    static final String SYNC_EXTRAS_TOP_UP = "sunshine_top_up";
 
     private final GoogleApiClient googleApiClient;
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    private static final String[] WEARABLE_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    private final ForecastHttpClient httpClient = new ForecastHttpClient();
+    private final ForecastSource forecastSource;
+    private ExecutorService locationExecutor;
+    private ExecutorService writerExecutor;
+
+    // Shared by every sync in the process, so that overlapping syncs don't fetch the same
+    // location twice
+    private static final SyncCoordinator sCoordinator = new SyncCoordinator();
+    // The sync in progress, if any
+    private static volatile SyncCoordinator.Caller sCurrentSync;
+    // Holds the syncs off the forecast source while it's failing, for every sync in the process
+    private static CircuitBreaker sCircuitBreaker;
 
     @Override
     public void onConnected(@Nullable Bundle bundle) {
@@ -132,6 +160,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        forecastSource = createForecastSource(context, httpClient);
         googleApiClient = new GoogleApiClient.Builder(context)
                 .addApi(Wearable.API)
                 .addConnectionCallbacks(this)
@@ -143,93 +172,712 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        SyncTrace trace = new SyncTrace(manual);
+        SyncCoordinator.Caller caller = new SyncCoordinator.Caller(manual);
+        sCurrentSync = caller;
+        try {
+            performSync(extras, manual, caller, trace, syncResult);
+        } finally {
+            if (sCurrentSync == caller) {
+                sCurrentSync = null;
+            }
+        }
+    }
+
+    /**
+     * Cancels the sync in progress.  Its thread isn't interrupted, as the default does: the
+     * location workers may be fetching for another sync as well, see {@link SyncCoordinator}.
+     * The downloads only this sync wanted are aborted instead, and it returns without storing
+     * or publishing anything more.
+     */
+    @Override
+    public void onSyncCanceled() {
+        SyncCoordinator.Caller caller = sCurrentSync;
+        if (caller != null) {
+            Log.d(LOG_TAG, "Cancelling " + (caller.manual ? "manual" : "periodic") + " sync");
+            sCoordinator.cancel(caller);
+        }
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    private void performSync(Bundle extras, boolean manual, final SyncCoordinator.Caller caller,
+                             final SyncTrace trace, SyncResult syncResult) {
+        final String preferredLocation = Utility.getPreferredLocation(getContext());
+        // On a metered, roaming or slow network, fetch less and skip the art
+        final NetworkPolicy policy = NetworkPolicy.forActiveNetwork(getContext());
+        if (policy.isConstrained()) {
+            Log.d(LOG_TAG, "Holding back on " + policy);
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // Periodic syncs keep the locations the user is likely to switch back to fresh.  A manual
+        // sync is asked for when the user is waiting on the preferred location, so that's all
+        // it fetches unless told otherwise.
+        final boolean allLocations = extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, !manual);
+        final List<String> locationSettings = allLocations
+                ? getPrefetchLocationSettings(preferredLocation)
+                : Collections.singletonList(preferredLocation);
+        trace.setLocations(locationSettings.size());
+
+        if (!allLocations) {
+            // Whatever is still being fetched only because it used to be the preferred
+            // location isn't wanted anymore
+            sCoordinator.onPreferredLocationChanged(preferredLocation);
+        }
+
+        // With no weather at all to show, right after install, get today on screen first: a
+        // single day downloads and stores in a fraction of the time the whole forecast takes.
+        // The rest follows straight after, unless the source couldn't even answer for today.
+        Map<String, Integer> storedRows = fetchInPhases(isColdStart(getContext()),
+                new SyncPhases<Map<String, Integer>>() {
+                    @Override
+                    public boolean fetchToday() {
+                        return syncToday(preferredLocation, !allLocations, caller, trace, policy);
+                    }
+
+                    @Override
+                    public Map<String, Integer> fetchAll() {
+                        return syncLocations(locationSettings, preferredLocation, !allLocations,
+                                caller, trace, policy);
+                    }
+                });
+        if (storedRows == null) {
+            // Asking for the whole forecast now would only fail again, and count against the
+            // source a second time
+            Log.d(LOG_TAG, "Cold start: today wasn't fetched, leaving the rest for later");
+            trace.save(getContext());
+            return;
+        }
+        if (caller.isCancelled()) {
+            // What was committed before the cancel stays, it's as current as can be.  Nothing
+            // more is done on behalf of this sync: whatever superseded it will publish.
+            Log.d(LOG_TAG, "Sync cancelled after " + storedRows.size() + " of " +
+                    locationSettings.size() + " locations");
+            return;
+        }
+
+        int totalStored = 0;
+        for (Integer stored : storedRows.values()) {
+            totalStored += stored;
+        }
+        syncResult.stats.numInserts += totalStored;
+
+        if (totalStored > 0) {
+            long start = System.nanoTime();
+            deleteOldWeatherData();
+            trace.addPhase(SyncTrace.PHASE_DELETE, System.nanoTime() - start);
+        }
+
+        // Everything below only ever shows the preferred location
+        Integer preferredStored = storedRows.get(preferredLocation);
+        if (preferredStored != null && preferredStored > 0) {
+            publishToday(preferredLocation, trace, policy);
+        }
+
+        // How the preferred location's forecast moved decides when the next sync is due
+        if (preferredStored != null
+                && Utility.getLocationStatus(getContext()) == LOCATION_STATUS_OK) {
+            SyncScheduler.onPreferredLocationSynced(getContext(), preferredStored,
+                    policy.getForecastDays(FORECAST_DAYS), getWatchFaceLastSeen());
+        }
+
+        // Fetch the rest of the forecast once the device is on a network that can afford it.
+        // A top up that still finds the network constrained doesn't ask for another one.
+        if (!storedRows.isEmpty() && policy.getForecastDays(FORECAST_DAYS) < FORECAST_DAYS
+                && !extras.getBoolean(SYNC_EXTRAS_TOP_UP, false)) {
+            requestTopUpSync(getContext(), allLocations);
+        }
+
+        trace.save(getContext());
+        Log.d(LOG_TAG, "Sync Complete. " + totalStored + " Changed for " +
+                storedRows.size() + " of " + locationSettings.size() + " locations");
+        Log.d(LOG_TAG, "Network totals: " + httpClient.getRequestCount() + " requests, " +
+                httpClient.getBytesReceived() + " bytes received, " +
+                httpClient.getBytesDecoded() + " bytes decoded");
+        Log.d(LOG_TAG, "Network policy totals: about " + NetworkPolicy.getBytesSaved(getContext()) +
+                " bytes of forecast and " + NetworkPolicy.getArtSkippedCount(getContext()) +
+                " art downloads saved");
+        Log.d(LOG_TAG, "Coordinator totals: " + sCoordinator.getJoinedCount() +
+                " joined syncs already in flight, " + sCoordinator.getCancelledCount() +
+                " superseded syncs cancelled");
+    }
+
+    /**
+     * The fetches of a sync, which {@link #fetchInPhases} runs in order.
+     */
+    interface SyncPhases<T> {
+        /**
+         * Fetches today's forecast alone for the preferred location.
+         *
+         * @return whether the forecast source answered with it
+         */
+        boolean fetchToday();
+
+        /**
+         * Fetches the whole forecast of every location of the sync.
+         */
+        T fetchAll();
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Runs the fetches of a sync: on a cold start, today for the preferred location first, then
+     * the whole forecasts if that worked.  Otherwise straight to the whole forecasts.
+     *
+     * @param coldStart whether there is no weather stored at all yet, see {@link #isColdStart}
+     * @return what the whole forecasts fetched, or null if they were skipped
+     */
+    static <T> T fetchInPhases(boolean coldStart, SyncPhases<T> phases) {
+        if (coldStart && !phases.fetchToday()) {
+            return null;
+        }
+        return phases.fetchAll();
+    }
 
+    /**
+     * @return whether the weather table is empty, as it is until the first sync stores a
+     * forecast.  A location new to us while others are stored isn't a cold start: the user has
+     * something to look at, and its full forecast comes with the sync anyway.
+     */
+    static boolean isColdStart(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            return !cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The first phase of a cold start: fetches and stores only today's forecast for the
+     * preferred location and puts it in the widgets right away.  The forecast list picks it up
+     * from the provider as soon as it's committed.
+     *
+     * @return whether the forecast source answered, false if it failed, was held off or the
+     * sync was cancelled
+     */
+    private boolean syncToday(String preferredLocation, boolean preferredOnly,
+                              SyncCoordinator.Caller caller, SyncTrace trace,
+                              NetworkPolicy policy) {
+        long start = System.nanoTime();
+        Integer stored = syncLocation(preferredLocation, true, preferredOnly, caller, trace,
+                policy, COLD_START_DAYS);
+        if (stored == null || caller.isCancelled()
+                || Utility.getLocationStatus(getContext()) != LOCATION_STATUS_OK) {
+            return false;
+        }
+        if (stored == 0) {
+            return true;
+        }
+        TodaySnapshot today = TodaySnapshot.query(getContext(), preferredLocation);
+        if (today != null) {
+            updateWidgets(today);
+        }
+        Log.d(LOG_TAG, "Cold start: today stored for " + preferredLocation + " in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+        return true;
+    }
+
+    /**
+     * Picks where forecasts come from according to the build type: OpenWeatherMap, or a server
+     * standing in for it, over HTTP, or the fixtures in the assets.
+     */
+    static ForecastSource createForecastSource(Context context, ForecastHttpClient httpClient) {
+        if (ForecastSource.SOURCE_FIXTURE.equals(BuildConfig.FORECAST_SOURCE)) {
+            return new FixtureForecastSource(context.getAssets());
+        }
+        return new HttpForecastSource(httpClient, BuildConfig.FORECAST_BASE_URL,
+                BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * @param preferredLocation the location the user has picked, which comes first whether or
+     *                          not it has made it to the database yet
+     * @return the settings of the preferred location and of the locations in the database the
+     * user is most likely to switch back to, within R.integer.sync_prefetch_locations.  Of
+     * settings sharing their weather, only one is fetched.
+     */
+    private List<String> getPrefetchLocationSettings(String preferredLocation) {
+        // By setting, the location holding its weather
+        Map<String, Long> locationSettings = new LinkedHashMap<String, Long>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_CANONICAL_ID},
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationSettings.put(cursor.getString(0),
+                        cursor.isNull(2) ? cursor.getLong(1) : cursor.getLong(2));
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            cursor.close();
+        }
+        List<String> prefetchLocations = new ArrayList<String>();
+        prefetchLocations.add(preferredLocation);
+        prefetchLocations.addAll(LocationHistory.getPrefetchLocations(getContext(),
+                locationSettings, preferredLocation));
+        return prefetchLocations;
+    }
+
+    /**
+     * Syncs the given locations in batches of up to R.integer.sync_locations_per_batch.  A batch
+     * is fetched back to back by a single worker, so it goes over a single kept-alive
+     * connection, and up to R.integer.sync_max_parallel_locations batches run at a time.  Each
+     * location is still written to the provider on its own, so one location failing doesn't
+     * hold back or undo the others.
+     *
+     * @param preferredOnly whether the locations are only wanted because they are the preferred
+     *                      one, in which case a later change of preferred location cancels them
+     * @param caller this sync, for the coordinator.  Once it's cancelled no more locations are
+     *               started.
+     * @param policy how much the network allows to download
+     * @return the number of weather rows that were new or changed, by location.  Locations that
+     * didn't get to run because the sync was interrupted or superseded, or that failed
+     * unexpectedly, are left out.
+     */
+    private Map<String, Integer> syncLocations(List<String> locationSettings,
+                                               final String preferredLocation,
+                                               final boolean preferredOnly,
+                                               final SyncCoordinator.Caller caller,
+                                               final SyncTrace trace,
+                                               final NetworkPolicy policy) {
+        final Map<String, Integer> storedRows = new ConcurrentHashMap<String, Integer>();
+        if (locationSettings.size() == 1) {
+            String locationSetting = locationSettings.get(0);
+            Integer stored = syncLocation(locationSetting,
+                    locationSetting.equals(preferredLocation), preferredOnly, caller, trace,
+                    policy, policy.getForecastDays(FORECAST_DAYS));
+            if (stored != null) {
+                storedRows.put(locationSetting, stored);
             }
+            return storedRows;
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
+        Resources resources = getContext().getResources();
+        List<List<String>> batches = splitIntoBatches(locationSettings,
+                resources.getInteger(R.integer.sync_locations_per_batch),
+                resources.getInteger(R.integer.sync_max_parallel_locations));
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(batches.size());
+        for (final List<String> batch : batches) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (String locationSetting : batch) {
+                        if (caller.isCancelled() || Thread.currentThread().isInterrupted()) {
+                            break;
+                        }
+                        Integer stored = syncLocation(locationSetting,
+                                locationSetting.equals(preferredLocation), preferredOnly, caller,
+                                trace, policy, policy.getForecastDays(FORECAST_DAYS));
+                        if (stored != null) {
+                            storedRows.put(locationSetting, stored);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        List<Future<Void>> results;
+        try {
+            results = getLocationExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            // The sync thread was interrupted, invokeAll has already cancelled what was left
+            Thread.currentThread().interrupt();
+            return storedRows;
+        }
+
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (CancellationException | InterruptedException e) {
+                // Didn't run to the end
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error syncing locations", e.getCause());
+            }
+        }
+        return storedRows;
+    }
+
+    /**
+     * Splits the locations into as few batches of at most batchSize as possible, but into at
+     * least as many as there are workers to run them, so none sits idle.
+     */
+    static List<List<String>> splitIntoBatches(List<String> locationSettings, int batchSize,
+                                               int maxParallelism) {
+        int count = locationSettings.size();
+        batchSize = Math.max(1, batchSize);
+        int batchCount = Math.max((count + batchSize - 1) / batchSize,
+                Math.min(Math.max(1, maxParallelism), count));
+
+        List<List<String>> batches = new ArrayList<List<String>>(batchCount);
+        int start = 0;
+        for (int i = 0; i < batchCount; i++) {
+            // Spread the remainder over the first batches
+            int end = start + count / batchCount + (i < count % batchCount ? 1 : 0);
+            batches.add(locationSettings.subList(start, end));
+            start = end;
+        }
+        return batches;
+    }
+
+    private synchronized ExecutorService getLocationExecutor() {
+        if (locationExecutor == null) {
+            int maxParallelism = Math.max(1,
+                    getContext().getResources().getInteger(R.integer.sync_max_parallel_locations));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxParallelism, maxParallelism,
+                    LOCATION_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            // Syncs are hours apart, there's no point in keeping the threads around in between
+            executor.allowCoreThreadTimeOut(true);
+            locationExecutor = executor;
+        }
+        return locationExecutor;
+    }
+
+    /**
+     * @return the executor the {@link WeatherWritePipeline}s write from.  It grows a thread per
+     * pipeline, so a writer never waits behind the parser of another location.
+     */
+    private synchronized ExecutorService getWriterExecutor() {
+        if (writerExecutor == null) {
+            writerExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    LOCATION_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>());
+        }
+        return writerExecutor;
+    }
+
+    /**
+     * Syncs one location, or waits for the sync of it already in progress, from this sync or
+     * from another one, to finish.
+     *
+     * @param preferredOnly whether the location is only wanted because it is the preferred one
+     * @param caller this sync
+     * @param days how many days of forecast to ask for
+     * @return the number of weather rows that were new or changed, or null if the sync of the
+     * location or this sync was cancelled, or it was interrupted
+     */
+    private Integer syncLocation(final String locationSetting, final boolean preferred,
+                                 boolean preferredOnly, SyncCoordinator.Caller caller,
+                                 final SyncTrace trace, final NetworkPolicy policy,
+                                 final int days) {
+        return sCoordinator.run(locationSetting, preferredOnly, caller,
+                new SyncCoordinator.Work() {
+                    @Override
+                    public Integer run(SyncCoordinator.Flight flight) {
+                        return fetchLocation(locationSetting, preferred, flight, trace, policy,
+                                days);
+                    }
+                });
+    }
+
+    /**
+     * Fetches the forecast of one location and stores it, then records how that went on the
+     * location's row, and in the shared preferences for the preferred location.  Can run for
+     * several locations at once.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param preferred whether this is the location the user has picked
+     * @param flight the coordinator's handle on this fetch, which aborts it if it's superseded
+     * @param trace where to add the time spent in each phase
+     * @param policy how many days of forecast the network allows
+     * @param days how many days of forecast to ask for, fewer than FORECAST_DAYS when the
+     *             network doesn't allow more or for the first phase of a cold start
+     * @return the number of weather rows that were new or changed, or null if superseded or
+     * if the forecast source is being held off
+     */
+    private Integer fetchLocation(String locationSetting, boolean preferred,
+                                  SyncCoordinator.Flight flight, SyncTrace trace,
+                                  NetworkPolicy policy, int days) {
+        if (flight.isCancelled()) {
+            return null;
+        }
+
+        // While the forecast source keeps failing, don't spend the radio on it until the breaker
+        // lets a request through again
+        CircuitBreaker breaker = getCircuitBreaker(getContext());
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            Log.d(LOG_TAG, "Not fetching " + locationSetting + ", holding off the forecast source");
+            if (preferred && locationSetting.equals(Utility.getPreferredLocation(getContext()))) {
                 setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            return null;
+        }
+
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        ForecastSource.Response response = null;
+        WeatherWritePipeline pipeline = null;
+
+        // Stays unknown if the fetch is given up before the source has answered
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        int stored = 0;
+
+        try {
+            // Once OWM has told us which city the setting stands for, ask for that city directly
+            Long cityId = getCityId(locationSetting);
+
+            // If we already hold a forecast for this location, only ask for it again
+            // if it has changed since.
+            Map<String, String> requestHeaders = new HashMap<String, String>();
+            ContentValues validators = getForecastValidators(locationSetting);
+            if (validators != null) {
+                String etag = validators.getAsString(WeatherContract.LocationEntry.COLUMN_ETAG);
+                String lastModified =
+                        validators.getAsString(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
+                if (etag != null) {
+                    requestHeaders.put("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    requestHeaders.put("If-Modified-Since", lastModified);
+                }
+            }
+
+            // Ask the forecast source, usually OpenWeatherMap, and wait for the response headers
+            response = forecastSource.fetch(locationSetting, cityId, days, requestHeaders);
+            flight.setResponse(response);
+
+            int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed upstream: what we have stored is still current, so there is
+                // nothing to parse, insert or tell anybody about.
+                Log.d(LOG_TAG, "Forecast unchanged for " + locationSetting);
+                incrementUnchangedSyncCount(getContext());
+                status = LOCATION_STATUS_OK;
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                status = LOCATION_STATUS_INVALID;
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                status = LOCATION_STATUS_SERVER_DOWN;
+            } else {
+                InputStream inputStream = response.getBody();
+                Vector<ContentValues> cVVector = new Vector<ContentValues>();
+
+                // Parsing reads the body as it goes: whatever of its time wasn't spent waiting
+                // for the network is the parse's own
+                long parseStart = System.nanoTime();
+                long readBefore = response.getReadNanos();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    // Parse the forecast straight off the stream rather than holding the whole
+                    // body (and a JSONObject tree of it) in memory, and hand the days to a
+                    // writer while the rest is still arriving if the provider lets us.
+                    pipeline = WeatherWritePipeline.open(getContext().getContentResolver(),
+                            getWriterExecutor(), flight);
+                    status = getWeatherDataFromStream(inputStream,
+                            new ForecastRowCollector(locationSetting, cVVector, pipeline));
+                } else {
+                    status = getWeatherDataFromString(inputStream, locationSetting, cVVector);
+                }
+                trace.addPhase(SyncTrace.PHASE_PARSE, Math.max(0, System.nanoTime() - parseStart
+                        - (response.getReadNanos() - readBefore)));
+
+                boolean storedForecast = false;
+                // Holding the flight keeps it from being cancelled while the forecast is being
+                // committed: once cancelled, nothing is committed any more
+                synchronized (flight) {
+                    if (flight.isCancelled()) {
+                        return null;
+                    }
+                    if (status == LOCATION_STATUS_OK && pipeline != null) {
+                        Integer committed = pipeline.finish();
+                        if (committed == null) {
+                            return null;
+                        }
+                        stored = committed;
+                        trace.addPhase(SyncTrace.PHASE_INSERT, pipeline.getWriteNanos());
+                        storedForecast = true;
+                    } else if (status == LOCATION_STATUS_OK && cVVector.size() > 0) {
+                        long insertStart = System.nanoTime();
+                        stored = storeWeatherData(cVVector);
+                        trace.addPhase(SyncTrace.PHASE_INSERT, System.nanoTime() - insertStart);
+                        storedForecast = true;
+                    }
+                }
+                if (storedForecast && days == FORECAST_DAYS) {
+                    saveForecastValidators(locationSetting,
+                            response.getHeaderField("ETag"),
+                            response.getHeaderField("Last-Modified"));
+                } else if (storedForecast && days == policy.getForecastDays(FORECAST_DAYS)) {
+                    // The validators of a cut down forecast must not stop the full one from
+                    // being fetched later: the full forecast's validators are kept instead
+                    NetworkPolicy.addBytesSaved(getContext(), NetworkPolicy.estimateBytesSaved(
+                            response.getBytesRead(), days, FORECAST_DAYS));
+                }
+            }
         } catch (IOException e) {
+            if (flight.isCancelled()) {
+                // Aborted because the location was superseded, the server isn't to blame
+                Log.d(LOG_TAG, "Sync of " + locationSetting + " superseded");
+                return null;
+            }
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            status = LOCATION_STATUS_SERVER_DOWN;
+        } finally {
+            reportToCircuitBreaker(breaker, status);
+            // Whatever wasn't committed by now, an error, a bad forecast or being superseded,
+            // is thrown away
+            if (pipeline != null) {
+                pipeline.abort();
+            }
+            // Closing the response, rather than disconnecting, keeps the connection around
+            // for the next request
+            if (response != null) {
+                response.close();
+                trace.addResponse(response);
+            }
+        }
+
+        saveLocationSyncStatus(locationSetting, status);
+        // The user may have picked another location while this one was being fetched, the
+        // status in the preferences is the new one's to set
+        if (preferred && locationSetting.equals(Utility.getPreferredLocation(getContext()))) {
+            setLocationStatus(getContext(), status);
+        }
+        return stored;
+    }
+
+    private static synchronized CircuitBreaker getCircuitBreaker(Context context) {
+        if (sCircuitBreaker == null) {
+            sCircuitBreaker = new CircuitBreaker(context.getApplicationContext(), new Random());
+        }
+        return sCircuitBreaker;
+    }
+
+    private static void reportToCircuitBreaker(CircuitBreaker breaker,
+                                               @LocationStatus int status) {
+        switch (status) {
+            case LOCATION_STATUS_SERVER_DOWN:
+            case LOCATION_STATUS_SERVER_INVALID:
+                breaker.onFailure(System.currentTimeMillis());
+                break;
+            case LOCATION_STATUS_UNKNOWN:
+                breaker.onAbandoned();
+                break;
+            default:
+                // The source did answer, if only that it doesn't know the location
+                breaker.onSuccess();
+        }
+    }
+
+    /**
+     * Reads the whole response into a String and parses it with {@link #getWeatherDataFromJson}.
+     * Only used where the streaming parser isn't available.
+     *
+     * @return the status of the location
+     */
+    private @LocationStatus int getWeatherDataFromString(InputStream inputStream,
+            String locationQuery, Vector<ContentValues> cVVector) throws IOException {
+        // The reader isn't closed here: the stream belongs to the response, which needs it
+        // to hand the connection back for reuse.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+
+        // Read the input stream into a String
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line + "\n");
+        }
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            return LOCATION_STATUS_SERVER_DOWN;
+        }
+
+        // Will contain the raw JSON response as a string.
+        String forecastJsonStr = buffer.toString();
+        try {
+            return getWeatherDataFromJson(forecastJsonStr, locationQuery, cVVector);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            return LOCATION_STATUS_SERVER_INVALID;
+        }
+    }
+
+    /**
+     * Streaming counterpart of {@link #getWeatherDataFromJson}: the forecast is parsed token by
+     * token as it arrives, and each day is turned into a row as soon as it has been read.
+     * Error responses are recognized from their "cod" and the rest of the body is not read.
+     *
+     * @param collector receives the city and the days
+     * @return the status of the location
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private @LocationStatus int getWeatherDataFromStream(InputStream inputStream,
+            ForecastRowCollector collector) throws IOException {
+        try {
+            int errorCode = new ForecastJsonParser().parse(inputStream, collector);
+
+            switch (errorCode) {
+                case HttpURLConnection.HTTP_OK:
+                    return LOCATION_STATUS_OK;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return LOCATION_STATUS_INVALID;
+                default:
+                    return LOCATION_STATUS_SERVER_DOWN;
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return LOCATION_STATUS_SERVER_INVALID;
+        }
+    }
+
+    /**
+     * Builds the weather rows for one location as the {@link ForecastJsonParser} hands over
+     * the city and each day, and passes each on to the pipeline storing them if there is one.
+     */
+    private class ForecastRowCollector implements ForecastJsonParser.Callback {
+        final String locationSetting;
+        final Vector<ContentValues> cVVector;
+        final WeatherWritePipeline pipeline;
+        final int julianStartDay;
+        // now we work exclusively in UTC
+        final Time dayTime = new Time();
+        long locationId;
+
+        /**
+         * @param cVVector receives the weather rows, location key and date filled in, if there
+         * is no pipeline
+         * @param pipeline stores the weather rows as they come, may be null
+         */
+        ForecastRowCollector(String locationSetting, Vector<ContentValues> cVVector,
+                             WeatherWritePipeline pipeline) {
+            this.locationSetting = locationSetting;
+            this.cVVector = cVVector;
+            this.pipeline = pipeline;
+
+            // Same as getWeatherDataFromJson, we start at the day returned by local time.
+            Time localTime = new Time();
+            localTime.setToNow();
+            julianStartDay = Time.getJulianDay(System.currentTimeMillis(), localTime.gmtoff);
+        }
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            locationId = addLocation(locationSetting, cityId, cityName, lat, lon);
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues weatherValues) {
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + dayIndex));
+            if (pipeline != null) {
+                pipeline.add(weatherValues);
+            } else {
+                cVVector.add(weatherValues);
             }
         }
-        return;
     }
 
     /**
@@ -238,9 +886,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
      *
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
+     *
+     * @param cVVector receives the weather rows, location key and date filled in
+     * @return the status of the location
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
+    private @LocationStatus int getWeatherDataFromJson(String forecastJsonStr,
+                                        String locationSetting,
+                                        Vector<ContentValues> cVVector)
             throws JSONException {
 
         // Now we have a String representing the complete forecast in JSON Format.
@@ -251,6 +903,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
 
         // Location information
         final String OWM_CITY = "city";
+        final String OWM_CITY_ID = "id";
         final String OWM_CITY_NAME = "name";
         final String OWM_COORD = "coord";
 
@@ -288,27 +941,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
                     case HttpURLConnection.HTTP_OK:
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        return LOCATION_STATUS_INVALID;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        return LOCATION_STATUS_SERVER_DOWN;
                 }
             }
 
             JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
 
             JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+            long cityId = cityJson.optLong(OWM_CITY_ID);
             String cityName = cityJson.getString(OWM_CITY_NAME);
 
             JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            long locationId = addLocation(locationSetting, cityId, cityName, cityLatitude, cityLongitude);
 
             // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            cVVector.ensureCapacity(weatherArray.length());
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -381,44 +1033,109 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
                 cVVector.add(weatherValues);
             }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-               updateWearables();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            return LOCATION_STATUS_OK;
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return LOCATION_STATUS_SERVER_INVALID;
         }
     }
 
-    private void updateWearables() {
+    /**
+     * Writes the parsed forecast of one location to the database, in a single transaction.
+     * Days whose forecast didn't change are not written again.
+     *
+     * @param cVVector the weather rows, location key and date already filled in
+     * @return the number of rows that were new or changed
+     */
+    private int storeWeatherData(Vector<ContentValues> cVVector) {
+        ContentValues[] cvArray = new ContentValues[cVVector.size()];
+        cVVector.toArray(cvArray);
+        return getContext().getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+    }
+
+    /**
+     * Deletes the weather of the days before yesterday, local time, so we don't build up an
+     * endless history.
+     */
+    private void deleteOldWeatherData() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        dayTime = new Time();
+        getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+    }
+
+    /**
+     * Hands today's weather for the preferred location to everything that shows it.  It is read
+     * from the provider once, and the notification and the wearables, which both have a bitmap
+     * to prepare, are updated side by side.
+     */
+    private void publishToday(String preferredLocation, final SyncTrace trace,
+                              final NetworkPolicy policy) {
+        final TodaySnapshot today = TodaySnapshot.query(getContext(), preferredLocation);
+        if (today == null) {
+            return;
+        }
+
+        // These only send an intent along, with the snapshot in it
+        long start = System.nanoTime();
+        updateWidgets(today);
+        long widgetsDone = System.nanoTime();
+        trace.addPhase(SyncTrace.PHASE_WIDGETS, widgetsDone - start);
+        updateMuzei(today);
+        trace.addPhase(SyncTrace.PHASE_MUZEI, System.nanoTime() - widgetsDone);
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(2);
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long start = System.nanoTime();
+                notifyWeather(today, policy);
+                trace.addPhase(SyncTrace.PHASE_NOTIFICATION, System.nanoTime() - start);
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long start = System.nanoTime();
+                updateWearables(today);
+                trace.addPhase(SyncTrace.PHASE_WEARABLES, System.nanoTime() - start);
+                return null;
+            }
+        });
+
+        List<Future<Void>> results;
+        try {
+            // The locations are done by now, so their workers are free
+            results = getLocationExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (CancellationException | InterruptedException e) {
+                // Didn't run to the end
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error publishing today's weather", e.getCause());
+            }
+        }
+    }
+
+    private void updateWearables(TodaySnapshot today) {
         if (googleApiClient != null && googleApiClient.isConnected()) {
-            String locationQuery = Utility.getPreferredLocation(getContext());
-            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-            Cursor cursor = getContext().getContentResolver().query(weatherUri, WEARABLE_WEATHER_PROJECTION, null, null, null);
-            if (cursor == null || !cursor.moveToFirst())
-                return;
-
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String highTemp = Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MAX_TEMP));
-            String lowTemp = Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MIN_TEMP));
+            int weatherId = today.weatherId;
+            String highTemp = Utility.formatTemperature(getContext(), today.maxTemp);
+            String lowTemp = Utility.formatTemperature(getContext(), today.minTemp);
             int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
 
             Bitmap weatherIcon = BitmapFactory.decodeResource(getContext().getResources(), iconId);
@@ -448,31 +1165,63 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
         }
     }
 
+    /**
+     * @return when the watch face was last shown on any of the connected wearables, in
+     * milliseconds, or 0 if it wasn't or they can't be reached
+     */
+    private long getWatchFaceLastSeen() {
+        if (googleApiClient == null || !googleApiClient.isConnected()) {
+            return 0;
+        }
+
+        // No host: the item put by any of the nodes
+        Uri seenUri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(WATCH_FACE_SEEN_PATH)
+                .build();
+        DataItemBuffer dataItems = Wearable.DataApi.getDataItems(googleApiClient, seenUri)
+                .await(WEARABLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long lastSeen = 0;
+        try {
+            if (dataItems.getStatus().isSuccess()) {
+                for (DataItem dataItem : dataItems) {
+                    lastSeen = Math.max(lastSeen,
+                            DataMapItem.fromDataItem(dataItem).getDataMap().getLong(TIME_KEY));
+                }
+            }
+        } finally {
+            dataItems.release();
+        }
+        return lastSeen;
+    }
+
     private static Asset bitmapToAsset(Bitmap bitmap) {
         ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.PNG, ICON_QUALITY_PERCENTAGE, byteStream);
         return Asset.createFromBytes(byteStream.toByteArray());
     }
 
-    private void updateWidgets() {
+    private void updateWidgets(TodaySnapshot today) {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
+                .setPackage(context.getPackageName())
+                .putExtra(TodaySnapshot.EXTRA_TODAY_SNAPSHOT, today);
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private void updateMuzei(TodaySnapshot today) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+                    .setClass(context, WeatherMuzeiSource.class)
+                    .putExtra(TodaySnapshot.EXTRA_TODAY_SNAPSHOT, today));
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(TodaySnapshot today, NetworkPolicy policy) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -487,37 +1236,33 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
+                int weatherId = today.weatherId;
+                double high = today.maxTemp;
+                double low = today.minTemp;
+                String desc = today.description;
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon, unless the network can't spare it
+                Bitmap largeIcon;
+                if (!policy.allowsArt()) {
+                    NetworkPolicy.onArtSkipped(context);
+                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                } else {
                     try {
                         largeIcon = Glide.with(context)
                                 .load(artUrl)
@@ -529,104 +1274,263 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
                 }
-                cursor.close();
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.commit();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Looks up the HTTP validators of the forecast we hold for a location.  They are only worth
+     * sending if today's weather for that location is actually in the database: otherwise a
+     * 304 would leave us with nothing to show.
      *
      * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the ETag and Last-Modified columns of the location, or null if there is nothing
+     * to revalidate.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+    private ContentValues getForecastValidators(String locationSetting) {
+        Context context = getContext();
+        Cursor locationCursor = context.getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
+                new String[]{WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED},
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
+        if (locationCursor == null) {
+            return null;
+        }
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
+        ContentValues validators = null;
+        if (locationCursor.moveToFirst()
+                && !(locationCursor.isNull(0) && locationCursor.isNull(1))) {
+            validators = new ContentValues();
+            validators.put(WeatherContract.LocationEntry.COLUMN_ETAG, locationCursor.getString(0));
+            validators.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+                    locationCursor.getString(1));
+        }
+        locationCursor.close();
 
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        if (validators != null) {
+            Uri todayUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                    locationSetting, System.currentTimeMillis());
+            Cursor todayCursor = context.getContentResolver().query(todayUri,
+                    new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                            WeatherContract.WeatherEntry._ID},
+                    null, null, null);
+            if (todayCursor == null || !todayCursor.moveToFirst()) {
+                validators = null;
+            }
+            if (todayCursor != null) {
+                todayCursor.close();
+            }
+        }
+        return validators;
+    }
+
+    /**
+     * Remembers the HTTP validators of the forecast just stored for a location, so the next
+     * sync can ask the server whether it changed.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param etag the ETag header of the response, or null
+     * @param lastModified the Last-Modified header of the response, or null
+     */
+    private void saveForecastValidators(String locationSetting, String etag, String lastModified) {
+        ContentValues validators = new ContentValues();
+        validators.put(WeatherContract.LocationEntry.COLUMN_ETAG, etag);
+        validators.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, lastModified);
+        getContext().getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI,
+                validators,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
+    /**
+     * Records the outcome of a sync on the location's row.  Locations that never made it to the
+     * database, e.g because the server didn't know them, have nowhere to record it.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param status the IntDef value to record
+     */
+    private void saveLocationSyncStatus(String locationSetting, @LocationStatus int status) {
+        ContentValues syncValues = new ContentValues();
+        syncValues.put(WeatherContract.LocationEntry.COLUMN_SYNC_STATUS, status);
+        syncValues.put(WeatherContract.LocationEntry.COLUMN_SYNC_TIME, System.currentTimeMillis());
+        getContext().getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI,
+                syncValues,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
 
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    /**
+     * @param locationSetting The location string used to request updates from the server.
+     * @return the OWM id of the city the location resolved to, or null if it isn't known yet
+     */
+    private Long getCityId(String locationSetting) {
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.buildLocationSettingUri(locationSetting),
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                null,
+                null,
+                null);
+        if (locationCursor == null) {
+            return null;
         }
 
+        Long cityId = null;
+        if (locationCursor.moveToFirst() && !locationCursor.isNull(0)) {
+            cityId = locationCursor.getLong(0);
+        }
         locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return cityId;
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.  A location
+     * setting that resolves to a city already stored under another setting, e.g a postcode
+     * and the city's name, shares that one's weather rather than storing its own.  The provider
+     * sees to that when the city id is stored, see
+     * {@link WeatherContract.LocationEntry#COLUMN_CANONICAL_ID}.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityId the OWM id of the city, or 0 if unknown
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the row ID of the location the weather is to be stored under
+     */
+    long addLocation(String locationSetting, long cityId, String cityName, double lat, double lon) {
+        // First, check if the location with this city name exists in the db.  The provider
+        // remembers it after the first sync.
+        Cursor locationCursor = queryLocationBySetting(locationSetting);
+        try {
+            if (locationCursor.moveToFirst()) {
+                // Locations stored before we kept city ids pick theirs up on their next sync
+                int cityIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+                if (cityId == 0 || (!locationCursor.isNull(cityIdIndex)
+                        && locationCursor.getLong(cityIdIndex) == cityId)) {
+                    return getWeatherLocationId(locationCursor);
+                }
+                ContentValues cityIdValues = new ContentValues();
+                cityIdValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                getContext().getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI,
+                        cityIdValues,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationCursor.getLong(locationCursor
+                                .getColumnIndex(WeatherContract.LocationEntry._ID)))});
+            } else {
+                // Now that the content provider is set up, inserting rows of data is pretty
+                // simple.  First create a ContentValues object to hold the data you want to
+                // insert.
+                ContentValues locationValues = new ContentValues();
+
+                // Then add the data, along with the corresponding name of the data type,
+                // so the content provider knows what kind of value is being inserted.
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+                if (cityId != 0) {
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                }
+
+                // Finally, insert location data into the database.
+                getContext().getContentResolver().insert(
+                        WeatherContract.LocationEntry.CONTENT_URI,
+                        locationValues
+                );
+            }
+        } finally {
+            locationCursor.close();
+        }
+
+        // The provider may have found the city stored under another setting meanwhile
+        locationCursor = queryLocationBySetting(locationSetting);
+        try {
+            if (!locationCursor.moveToFirst()) {
+                throw new SQLException("Location " + locationSetting + " was not stored");
+            }
+            long locationId = getWeatherLocationId(locationCursor);
+            if (locationId != locationCursor.getLong(
+                    locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID))) {
+                Log.d(LOG_TAG, locationSetting + " is the same city as location " + locationId);
+            }
+            // Wait, that worked?  Yes!
+            return locationId;
+        } finally {
+            locationCursor.close();
+        }
+    }
+
+    private Cursor queryLocationBySetting(String locationSetting) {
+        return getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.buildLocationSettingUri(locationSetting),
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID,
+                        WeatherContract.LocationEntry.COLUMN_CANONICAL_ID},
+                null,
+                null,
+                null);
+    }
+
+    /**
+     * @param locationCursor positioned on a location, as queried by
+     *                       {@link #queryLocationBySetting}
+     * @return the row ID of the location holding its weather
+     */
+    private static long getWeatherLocationId(Cursor locationCursor) {
+        int canonicalIdIndex =
+                locationCursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_CANONICAL_ID);
+        if (!locationCursor.isNull(canonicalIdIndex)) {
+            return locationCursor.getLong(canonicalIdIndex);
+        }
+        return locationCursor.getLong(
+                locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID));
     }
 
     /**
@@ -653,6 +1557,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        preemptPeriodicSync();
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -660,6 +1565,69 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * A sync the user is waiting for goes before a periodic one.  Syncs of the adapter run one
+     * at a time, so the periodic sync in progress, if any, is cancelled rather than waited
+     * for.  It runs again on schedule.
+     */
+    private static void preemptPeriodicSync() {
+        SyncCoordinator.Caller caller = sCurrentSync;
+        if (caller != null && !caller.manual) {
+            sCoordinator.cancel(caller);
+        }
+    }
+
+    /**
+     * Helper method to have the sync adapter sync the new preferred location immediately,
+     * cancelling what is still being fetched for the old one
+     * @param context The context used to access the account service
+     */
+    public static void onPreferredLocationChanged(Context context) {
+        String preferredLocation = Utility.getPreferredLocation(context);
+        LocationHistory.recordPick(context, preferredLocation);
+        sCoordinator.onPreferredLocationChanged(preferredLocation);
+        syncImmediately(context);
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh the locations kept fresh in the background
+     * immediately
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
+        preemptPeriodicSync();
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /**
+     * Asks for a sync of the full forecast for when the device is next on an unmetered network,
+     * after a sync that had to make do with less.  Before Lollipop the sync can't be held back
+     * for such a network, the next sync on one fetches the full forecast anyway.
+     * @param context The context used to access the account service
+     * @param allLocations whether the locations kept fresh are to be topped up, or only the
+     *                     preferred one
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    static void requestTopUpSync(Context context, boolean allLocations) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_TOP_UP, true);
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, allLocations);
+        SyncRequest request = new SyncRequest.Builder().
+                syncOnce().
+                setDisallowMetered(true).
+                setSyncAdapter(getSyncAccount(context), context.getString(R.string.content_authority)).
+                setExtras(extras).build();
+        ContentResolver.requestSync(request);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -700,6 +1668,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
     }
 
     private static void onAccountCreated(Account newAccount, Context context) {
+        /*
+         * This is the app's first launch, which the time to the first forecast is measured from
+         */
+        Utility.recordFirstLaunch(context);
+
         /*
          * Since we've created an account
          */
@@ -720,6 +1693,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter  implements
         getSyncAccount(context);
     }
 
+    /**
+     * Counts a sync that the server answered with 304 Not Modified.  This function should not be
+     * called from the UI thread because it uses commit to write to the shared preferences.
+     * @param c Context to get the PreferenceManager from.
+     */
+    static synchronized private void incrementUnchangedSyncCount(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String key = c.getString(R.string.pref_sync_unchanged_count_key);
+        sp.edit().putLong(key, sp.getLong(key, 0) + 1).commit();
+    }
+
     /**
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
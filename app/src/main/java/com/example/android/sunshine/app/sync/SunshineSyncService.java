@@ -2,9 +2,17 @@ package com.example.android.sunshine.app.sync;
 
 import android.app.Service;
 import android.content.Intent;
+import android.database.Cursor;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.SyncTraceDump;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +31,24 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
+
+    // adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        long launchToFirstForecast = Utility.getLaunchToFirstForecast(this);
+        writer.println("First forecast shown: " + (launchToFirstForecast == -1 ? "not yet"
+                : launchToFirstForecast + " ms after first launch"));
+
+        Cursor cursor = getContentResolver().query(WeatherContract.SyncTraceEntry.CONTENT_URI,
+                null, null, null, WeatherContract.SyncTraceEntry._ID + " ASC");
+        if (cursor == null) {
+            writer.println("Sync trace unavailable");
+            return;
+        }
+        try {
+            SyncTraceDump.dump(cursor, writer);
+        } finally {
+            cursor.close();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure each location is fetched by one sync at a time.
+ *
+ * Syncs are triggered from several places (a location change in the settings, the account
+ * being created, the periodic sync) and a sync cancelled by the system can leave its downloads
+ * running while the next one starts.  Work for a location that is already in flight isn't
+ * started again: the late caller waits for the one in progress and gets its result.  When the
+ * preferred location changes, work that was only wanted because the old location was the
+ * preferred one is aborted.  When a sync is cancelled, the work only it was waiting for is
+ * aborted, while work that other syncs are waiting for too carries on for them.
+ */
+class SyncCoordinator {
+
+    /**
+     * The work of syncing one location.
+     */
+    interface Work {
+        /**
+         * @param flight lets the work register the response it's reading, so that it can be
+         *               aborted, and tells it whether it was cancelled
+         * @return the number of weather rows that were new or changed, or null if cancelled
+         */
+        Integer run(Flight flight) throws Exception;
+    }
+
+    /**
+     * One sync, as far as the coordinator is concerned.
+     */
+    static class Caller {
+        // Whether the sync was asked for by the user rather than by the schedule
+        final boolean manual;
+        private volatile boolean mCancelled;
+
+        Caller(boolean manual) {
+            this.manual = manual;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Work in progress for one location.
+     */
+    static class Flight {
+        final String locationSetting;
+        private final FutureTask<Integer> mTask;
+        // Whether only syncs of the preferred location are waiting for this
+        private volatile boolean mPreferredOnly;
+        private boolean mCancelled;
+        private ForecastSource.Response mResponse;
+        // The syncs waiting for this
+        private final Set<Caller> mCallers = new HashSet<Caller>();
+
+        Flight(String locationSetting, boolean preferredOnly, final Work work) {
+            this.locationSetting = locationSetting;
+            mPreferredOnly = preferredOnly;
+            mTask = new FutureTask<Integer>(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return work.run(Flight.this);
+                }
+            }) {
+                @Override
+                protected void done() {
+                    synchronized (Flight.this) {
+                        Flight.this.notifyAll();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Registers the response the work is reading.  It is aborted right away if the flight
+         * has been cancelled in the meantime.
+         */
+        synchronized void setResponse(ForecastSource.Response response) {
+            mResponse = response;
+            if (mCancelled && response != null) {
+                response.abort();
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+            if (mResponse != null) {
+                mResponse.abort();
+            }
+        }
+
+        /**
+         * @return false if the caller can't wait for this, because either has been cancelled
+         */
+        private synchronized boolean addCaller(Caller caller) {
+            if (mCancelled || caller.isCancelled()) {
+                return false;
+            }
+            mCallers.add(caller);
+            return true;
+        }
+
+        /**
+         * @return whether that cancelled the flight, nobody else waiting for it
+         */
+        private synchronized boolean removeCaller(Caller caller) {
+            // Wake the caller if it's waiting
+            notifyAll();
+            if (!mCallers.remove(caller) || !mCallers.isEmpty() || mCancelled) {
+                return false;
+            }
+            cancel();
+            return true;
+        }
+
+        /**
+         * Waits for the work to finish, unless the caller is cancelled first.
+         *
+         * @return the result of the work, or null if the caller was cancelled
+         */
+        private Integer await(Caller caller) throws InterruptedException {
+            synchronized (this) {
+                while (!mTask.isDone() && !caller.isCancelled()) {
+                    wait();
+                }
+            }
+            if (caller.isCancelled()) {
+                return null;
+            }
+            try {
+                return mTask.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, Flight> mInFlight = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong mJoinedCount = new AtomicLong();
+    private final AtomicLong mCancelledCount = new AtomicLong();
+
+    /**
+     * Runs the work for a location on the calling thread, unless the location is already being
+     * synced, in which case it waits for that to finish instead.
+     *
+     * @param preferredOnly whether the caller only wants the location because it is the
+     *                      preferred one
+     * @param caller the sync asking
+     * @return the result of the work, or null if it or the caller was cancelled, or the calling
+     * thread was interrupted while waiting
+     */
+    Integer run(String locationSetting, boolean preferredOnly, Caller caller, Work work) {
+        try {
+            Flight flight = new Flight(locationSetting, preferredOnly, work);
+            if (!flight.addCaller(caller)) {
+                return null;
+            }
+            Flight inFlight;
+            while ((inFlight = mInFlight.putIfAbsent(locationSetting, flight)) != null) {
+                if (inFlight.addCaller(caller)) {
+                    mJoinedCount.incrementAndGet();
+                    if (!preferredOnly) {
+                        // Wanted whatever the preferred location is now
+                        inFlight.mPreferredOnly = false;
+                    }
+                    return inFlight.await(caller);
+                } else if (caller.isCancelled()) {
+                    return null;
+                }
+                // Cancelled, but still winding down.  Let it, then fetch the location afresh.
+                inFlight.await(caller);
+                mInFlight.remove(locationSetting, inFlight);
+            }
+
+            try {
+                flight.mTask.run();
+            } finally {
+                mInFlight.remove(locationSetting, flight);
+            }
+            return flight.await(caller);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Cancels a sync: it stops waiting for the work of the coordinator, and the work nobody
+     * else is waiting for is aborted.
+     */
+    void cancel(Caller caller) {
+        caller.mCancelled = true;
+        for (Flight flight : mInFlight.values()) {
+            if (flight.removeCaller(caller)) {
+                mCancelledCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Cancels the work that was only wanted because its location used to be the preferred one.
+     *
+     * @param preferredLocation the new preferred location
+     */
+    void onPreferredLocationChanged(String preferredLocation) {
+        for (Flight flight : mInFlight.values()) {
+            if (flight.mPreferredOnly && !flight.locationSetting.equals(preferredLocation)) {
+                flight.cancel();
+                mCancelledCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return how many callers joined work already in flight rather than starting their own
+     */
+    long getJoinedCount() {
+        return mJoinedCount.get();
+    }
+
+    /**
+     * @return how many flights were cancelled because the preferred location changed or the
+     * syncs waiting for them were cancelled
+     */
+    long getCancelledCount() {
+        return mCancelledCount.get();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.annotation.IntDef;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chooses how often the periodic sync runs, instead of every 3 hours for everybody.
+ *
+ * After each successful sync of the preferred location the interval is:
+ * <ul>
+ *     <li>halved if the forecast is shifting, i.e more than a quarter of its days changed, or
+ *     if somebody has been looking at the weather lately: the app was opened or the watch face
+ *     shown in the last few hours;</li>
+ *     <li>kept no wider than {@link SunshineSyncAdapter#SYNC_INTERVAL} while there are widgets
+ *     on the home screen or the Muzei source is enabled;</li>
+ *     <li>set to {@link #MAX_SYNC_INTERVAL} if the app and the watch face haven't been looked
+ *     at in days, and all that's left are the notifications, which only need a daily forecast,
+ *     or a watch face that may come back;</li>
+ *     <li>otherwise, with the forecast unchanged or nearly so and nobody looking, widened by
+ *     half.</li>
+ * </ul>
+ * and always kept between {@link #MIN_SYNC_INTERVAL} and {@link #MAX_SYNC_INTERVAL}.  Every
+ * interval chosen is kept, with the time it was chosen, so the number of syncs per day can be
+ * checked afterwards.  With nothing at all consuming the weather, the periodic sync is
+ * suspended instead until something asks for it again, see {@link ConsumerRegistry}.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Bounds of the sync interval, in seconds
+    static final int MIN_SYNC_INTERVAL = 60 * 60;
+    static final int MAX_SYNC_INTERVAL = 60 * 60 * 12;
+
+    // Share of the forecast days that have to change for the forecast to count as shifting
+    static final float SHIFTING_FORECAST_RATIO = 0.25f;
+
+    // How long opening the app or showing the watch face counts as looking at the weather
+    static final long RECENT_VIEW_MILLIS = 1000 * 60 * 60 * 3;
+
+    private static final int MAX_HISTORY_ENTRIES = 64;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({USAGE_NONE, USAGE_PASSIVE, USAGE_ACTIVE, USAGE_DORMANT})
+    public @interface Usage {}
+
+    // Nobody is looking at the weather
+    static final int USAGE_NONE = 0;
+    // There are widgets on the home screen
+    static final int USAGE_PASSIVE = 1;
+    // The app was opened or the watch face shown recently
+    static final int USAGE_ACTIVE = 2;
+    // The app and the watch face haven't been looked at in days and there's no widget or
+    // Muzei source: only the notifications, if anything, still use the weather
+    static final int USAGE_DORMANT = 3;
+
+    /**
+     * Records that the user is looking at the weather in the app.
+     * @param c Context to get the PreferenceManager from.
+     */
+    public static void reportViewed(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        sp.edit().putLong(c.getString(R.string.pref_last_viewed_key), System.currentTimeMillis())
+                .apply();
+        ConsumerRegistry.onDemand(c, ConsumerRegistry.CONSUMER_APP);
+    }
+
+    /**
+     * @param c Context to get the PreferenceManager from.
+     * @return the interval of the periodic sync, in seconds
+     */
+    public static int getSyncInterval(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getInt(c.getString(R.string.pref_sync_interval_key),
+                SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * @param c Context to get the PreferenceManager from.
+     * @return the intervals chosen so far, oldest first, as pairs of the time they were chosen
+     * at, in milliseconds, and the interval, in seconds
+     */
+    public static List<long[]> getSyncIntervalHistory(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return parseHistory(sp.getString(c.getString(R.string.pref_sync_interval_history_key), ""));
+    }
+
+    /**
+     * @param c Context to get the PreferenceManager from.
+     * @return how many periodic syncs a day the intervals chosen so far add up to, on average
+     * since the first one was chosen
+     */
+    public static float getSyncsPerDay(Context c) {
+        return getSyncsPerDay(getSyncIntervalHistory(c), getSyncInterval(c),
+                System.currentTimeMillis());
+    }
+
+    static float getSyncsPerDay(List<long[]> history, int currentInterval, long now) {
+        if (history.isEmpty() || now <= history.get(0)[0]) {
+            return (float) DAY_IN_MILLIS / (currentInterval * 1000L);
+        }
+        double syncs = 0;
+        for (int i = 0; i < history.size(); i++) {
+            long start = history.get(i)[0];
+            long end = i + 1 < history.size() ? history.get(i + 1)[0] : now;
+            syncs += (double) (end - start) / (history.get(i)[1] * 1000L);
+        }
+        return (float) (syncs * DAY_IN_MILLIS / (now - history.get(0)[0]));
+    }
+
+    /**
+     * Adjusts the periodic sync to how the forecast of the preferred location just moved.
+     * This function should not be called from the UI thread because it uses commit to write to
+     * the shared preferences.
+     *
+     * @param context The context used to access the preferences and the sync settings
+     * @param changedDays how many days of the forecast were new or different, 0 if the server
+     *                    reported it unchanged
+     * @param forecastDays how many days the forecast covers
+     * @param watchFaceLastSeen when the watch face was last shown, in milliseconds, or 0
+     */
+    static void onPreferredLocationSynced(Context context, int changedDays, int forecastDays,
+                                          long watchFaceLastSeen) {
+        Set<String> consumers = ConsumerRegistry.getActiveConsumers(context, watchFaceLastSeen);
+        if (consumers.isEmpty() && watchFaceLastSeen == 0) {
+            ConsumerRegistry.suspend(context);
+            return;
+        }
+        // Synced while suspended, something wants the weather again after all
+        boolean resumed = ConsumerRegistry.clearSuspended(context);
+
+        int currentInterval = getSyncInterval(context);
+        @Usage int usage = getUsage(context, watchFaceLastSeen, consumers);
+        int nextInterval = getNextSyncInterval(currentInterval, changedDays, forecastDays, usage);
+        if (nextInterval == currentInterval) {
+            if (resumed) {
+                SunshineSyncAdapter.configurePeriodicSync(context, nextInterval, nextInterval / 3);
+            }
+            return;
+        }
+
+        Log.d(LOG_TAG, "Sync interval " + currentInterval + "s -> " + nextInterval + "s (" +
+                changedDays + "/" + forecastDays + " days changed, usage " + usage + ")");
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String historyKey = context.getString(R.string.pref_sync_interval_history_key);
+        List<long[]> history = parseHistory(sp.getString(historyKey, ""));
+        history.add(new long[]{System.currentTimeMillis(), nextInterval});
+        while (history.size() > MAX_HISTORY_ENTRIES) {
+            history.remove(0);
+        }
+        sp.edit()
+                .putInt(context.getString(R.string.pref_sync_interval_key), nextInterval)
+                .putString(historyKey, formatHistory(history))
+                .commit();
+
+        SunshineSyncAdapter.configurePeriodicSync(context, nextInterval, nextInterval / 3);
+    }
+
+    static int getNextSyncInterval(int currentInterval, int changedDays, int forecastDays,
+                                   @Usage int usage) {
+        boolean shifting = forecastDays > 0
+                && changedDays > forecastDays * SHIFTING_FORECAST_RATIO;
+
+        int nextInterval;
+        if (usage == USAGE_DORMANT) {
+            nextInterval = MAX_SYNC_INTERVAL;
+        } else if (shifting || usage == USAGE_ACTIVE) {
+            nextInterval = currentInterval / 2;
+        } else if (usage == USAGE_PASSIVE) {
+            nextInterval = Math.min(currentInterval, SunshineSyncAdapter.SYNC_INTERVAL);
+        } else {
+            nextInterval = currentInterval + currentInterval / 2;
+        }
+        return Math.max(MIN_SYNC_INTERVAL, Math.min(MAX_SYNC_INTERVAL, nextInterval));
+    }
+
+    /**
+     * @param consumers the consumers of the weather, see {@link ConsumerRegistry}
+     */
+    static @Usage int getUsage(Context context, long watchFaceLastSeen, Set<String> consumers) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        long lastViewed = sp.getLong(context.getString(R.string.pref_last_viewed_key), 0);
+        long now = System.currentTimeMillis();
+        if (now - lastViewed < RECENT_VIEW_MILLIS || now - watchFaceLastSeen < RECENT_VIEW_MILLIS) {
+            return USAGE_ACTIVE;
+        }
+
+        if (consumers.contains(ConsumerRegistry.CONSUMER_TODAY_WIDGET)
+                || consumers.contains(ConsumerRegistry.CONSUMER_DETAIL_WIDGET)
+                || consumers.contains(ConsumerRegistry.CONSUMER_MUZEI)) {
+            return USAGE_PASSIVE;
+        }
+        if (consumers.contains(ConsumerRegistry.CONSUMER_APP)
+                || consumers.contains(ConsumerRegistry.CONSUMER_WEAR)) {
+            return USAGE_NONE;
+        }
+        return USAGE_DORMANT;
+    }
+
+    // The history is stored as "time:interval" entries separated by commas
+    static List<long[]> parseHistory(String history) {
+        List<long[]> entries = new ArrayList<long[]>();
+        if (TextUtils.isEmpty(history)) {
+            return entries;
+        }
+        for (String entry : history.split(",")) {
+            String[] fields = entry.split(":");
+            try {
+                entries.add(new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                Log.w(LOG_TAG, "Dropping malformed sync interval history entry " + entry);
+            }
+        }
+        return entries;
+    }
+
+    static String formatHistory(List<long[]> history) {
+        StringBuilder formatted = new StringBuilder();
+        for (long[] entry : history) {
+            if (formatted.length() > 0) {
+                formatted.append(',');
+            }
+            formatted.append(entry[0]).append(':').append(entry[1]);
+        }
+        return formatted.toString();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.SyncTraceDump;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTraceEntry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Where the time of one sync went.
+ *
+ * The sync adds the time spent in each phase as it goes, from whichever thread did the work,
+ * and saves the trace to the sync_trace table once done.  The table only keeps the last
+ * {@link SyncTraceEntry#MAX_ENTRIES} syncs.  {@link SyncTraceDump} summarizes it, with the
+ * median and 95th percentile of each phase, for
+ * <pre>adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService</pre>
+ * or a {@link SyncTraceEntry#METHOD_DUMP} call to the provider.
+ */
+public class SyncTrace {
+    private static final String LOG_TAG = SyncTrace.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PHASE_CONNECT, PHASE_FIRST_BYTE, PHASE_DOWNLOAD, PHASE_PARSE, PHASE_INSERT,
+            PHASE_DELETE, PHASE_WIDGETS, PHASE_MUZEI, PHASE_NOTIFICATION, PHASE_WEARABLES})
+    public @interface Phase {}
+
+    static final int PHASE_CONNECT = 0;
+    static final int PHASE_FIRST_BYTE = 1;
+    static final int PHASE_DOWNLOAD = 2;
+    static final int PHASE_PARSE = 3;
+    static final int PHASE_INSERT = 4;
+    static final int PHASE_DELETE = 5;
+    static final int PHASE_WIDGETS = 6;
+    static final int PHASE_MUZEI = 7;
+    static final int PHASE_NOTIFICATION = 8;
+    static final int PHASE_WEARABLES = 9;
+
+    // these must match the phases
+    private static final String[] PHASE_COLUMNS = {
+            SyncTraceEntry.COLUMN_CONNECT_MS,
+            SyncTraceEntry.COLUMN_FIRST_BYTE_MS,
+            SyncTraceEntry.COLUMN_DOWNLOAD_MS,
+            SyncTraceEntry.COLUMN_PARSE_MS,
+            SyncTraceEntry.COLUMN_INSERT_MS,
+            SyncTraceEntry.COLUMN_DELETE_MS,
+            SyncTraceEntry.COLUMN_WIDGETS_MS,
+            SyncTraceEntry.COLUMN_MUZEI_MS,
+            SyncTraceEntry.COLUMN_NOTIFICATION_MS,
+            SyncTraceEntry.COLUMN_WEARABLES_MS
+    };
+
+    private final long mStartTime;
+    private final long mStartNanos;
+    private final boolean mManual;
+    private final long[] mPhaseNanos = new long[PHASE_COLUMNS.length];
+    private long mDownloadBytes;
+    private int mRequests;
+    private int mLocations;
+
+    SyncTrace(boolean manual) {
+        mStartTime = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+        mManual = manual;
+    }
+
+    synchronized void addPhase(@Phase int phase, long nanos) {
+        mPhaseNanos[phase] += nanos;
+    }
+
+    /**
+     * Adds the time a response took to connect, to start answering and to download.
+     */
+    synchronized void addResponse(ForecastSource.Response response) {
+        mRequests++;
+        mPhaseNanos[PHASE_CONNECT] += response.getConnectNanos();
+        mPhaseNanos[PHASE_FIRST_BYTE] += response.getFirstByteNanos();
+        mPhaseNanos[PHASE_DOWNLOAD] += response.getReadNanos();
+        mDownloadBytes += response.getBytesRead();
+    }
+
+    synchronized void setLocations(int locations) {
+        mLocations = locations;
+    }
+
+    synchronized ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncTraceEntry.COLUMN_START_TIME, mStartTime);
+        values.put(SyncTraceEntry.COLUMN_MANUAL, mManual ? 1 : 0);
+        values.put(SyncTraceEntry.COLUMN_LOCATIONS, mLocations);
+        values.put(SyncTraceEntry.COLUMN_REQUESTS, mRequests);
+        values.put(SyncTraceEntry.COLUMN_TOTAL_MS, toMillis(System.nanoTime() - mStartNanos));
+        values.put(SyncTraceEntry.COLUMN_DOWNLOAD_BYTES, mDownloadBytes);
+        for (int phase = 0; phase < PHASE_COLUMNS.length; phase++) {
+            values.put(PHASE_COLUMNS[phase], toMillis(mPhaseNanos[phase]));
+        }
+        return values;
+    }
+
+    /**
+     * Records the sync in the sync_trace table.  A failure to do so is logged rather than
+     * failing the sync.
+     */
+    void save(Context context) {
+        ContentValues values = toContentValues();
+        try {
+            context.getContentResolver().insert(SyncTraceEntry.CONTENT_URI, values);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error saving sync trace", e);
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Today's weather for a location, as the sync left it.
+ *
+ * The sync reads it once and hands it to everything that shows today's weather (the
+ * notification, the wearables, the Today widget and Muzei), in the ACTION_DATA_UPDATED intents
+ * for the latter two, instead of each of them querying the provider for the same row.
+ */
+public class TodaySnapshot implements Parcelable {
+
+    // Intent extra holding the snapshot the ACTION_DATA_UPDATED intents were sent with
+    public static final String EXTRA_TODAY_SNAPSHOT =
+            "com.example.android.sunshine.app.extra.TODAY_SNAPSHOT";
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    public final String locationSetting;
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double maxTemp;
+    public final double minTemp;
+
+    public TodaySnapshot(String locationSetting, long date, int weatherId, String description,
+                         double maxTemp, double minTemp) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.maxTemp = maxTemp;
+        this.minTemp = minTemp;
+    }
+
+    /**
+     * Reads today's weather for a location from the provider, or the first day after today if
+     * today isn't there.
+     *
+     * @return the snapshot, or null if there is no weather from today on for the location
+     */
+    public static TodaySnapshot query(Context context, String locationSetting) {
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherForLocationUri, TODAY_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new TodaySnapshot(locationSetting,
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the snapshot the intent was sent with, if it is for the given location, or null
+     */
+    public static TodaySnapshot fromIntent(Intent intent, String locationSetting) {
+        if (intent == null) {
+            return null;
+        }
+        TodaySnapshot snapshot = intent.getParcelableExtra(EXTRA_TODAY_SNAPSHOT);
+        // The preferred location may have changed since the intent was sent
+        if (snapshot == null || !snapshot.locationSetting.equals(locationSetting)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(locationSetting);
+        dest.writeLong(date);
+        dest.writeInt(weatherId);
+        dest.writeString(description);
+        dest.writeDouble(maxTemp);
+        dest.writeDouble(minTemp);
+    }
+
+    public static final Parcelable.Creator<TodaySnapshot> CREATOR =
+            new Parcelable.Creator<TodaySnapshot>() {
+                @Override
+                public TodaySnapshot createFromParcel(Parcel in) {
+                    return new TodaySnapshot(in.readString(), in.readLong(), in.readInt(),
+                            in.readString(), in.readDouble(), in.readDouble());
+                }
+
+                @Override
+                public TodaySnapshot[] newArray(int size) {
+                    return new TodaySnapshot[size];
+                }
+            };
+}
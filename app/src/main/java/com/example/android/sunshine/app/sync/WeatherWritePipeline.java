@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.data.WeatherWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the weather rows of one location as its forecast is downloaded and parsed.  The
+ * parser hands each day over through a small bounded queue to a writer on another thread,
+ * which collects them as they come and stores the whole forecast in a single transaction once
+ * the last day is in.  A forecast that doesn't make it to the end is rolled back, never half
+ * stored.
+ *
+ * A transaction blocks every other writer of the database, the syncs of the other locations
+ * included, so the writer doesn't open it while the body is still arriving: the parallel
+ * locations each hold the lock only for as long as writing their own forecast takes, rather
+ * than for as long as their download does.
+ *
+ * The pipeline belongs to the flight of the location, see {@link SyncCoordinator}: once the
+ * flight is cancelled, the forecast is thrown away rather than committed.
+ *
+ * A pipeline is used by one thread, apart from its writer.
+ */
+class WeatherWritePipeline {
+
+    // Days parsed ahead of the writer before the parser waits for it
+    static final int QUEUE_CAPACITY = 4;
+    // How often a parser waiting on a full queue checks the writer is still there
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    // Marks the end of the forecast
+    private static final ContentValues END = new ContentValues();
+
+    private final ContentProviderClient mClient;
+    private final WeatherProvider mProvider;
+    private final SyncCoordinator.Flight mFlight;
+    private final BlockingQueue<ContentValues> mQueue =
+            new ArrayBlockingQueue<ContentValues>(QUEUE_CAPACITY);
+    private final Future<Integer> mWriter;
+    private volatile boolean mAborted;
+    private volatile long mWriteNanos;
+    private boolean mReleased;
+
+    /**
+     * Starts a pipeline writing straight to the weather provider.
+     *
+     * @param executor runs the writer.  It must have a thread to spare for every pipeline in use.
+     * @param flight the sync of the location whose forecast this stores
+     * @return the pipeline, or null if the provider isn't running in this process, in which
+     * case the rows have to go through {@link ContentResolver#bulkInsert} instead
+     */
+    static WeatherWritePipeline open(ContentResolver resolver, ExecutorService executor,
+                                     SyncCoordinator.Flight flight) {
+        ContentProviderClient client =
+                resolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            return null;
+        }
+        ContentProvider provider = client.getLocalContentProvider();
+        if (!(provider instanceof WeatherProvider)) {
+            client.release();
+            return null;
+        }
+        return new WeatherWritePipeline(client, (WeatherProvider) provider, executor, flight);
+    }
+
+    private WeatherWritePipeline(ContentProviderClient client, WeatherProvider provider,
+                                 ExecutorService executor, SyncCoordinator.Flight flight) {
+        mClient = client;
+        mProvider = provider;
+        mFlight = flight;
+        mWriter = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                return write();
+            }
+        });
+    }
+
+    /**
+     * Queues one weather row, waiting for the writer if it's behind.  Rows offered once the
+     * writer has failed are dropped, {@link #finish} reports the failure.
+     */
+    void add(ContentValues value) {
+        offer(value);
+    }
+
+    /**
+     * Waits for the writer to store every row added and commit them, unless the flight has
+     * been cancelled, in which case they are thrown away.
+     *
+     * @return the number of weather rows that were new or changed, or null if the flight was
+     * cancelled
+     * @throws android.database.SQLException if they could not be stored
+     */
+    Integer finish() {
+        try {
+            // Holding the flight keeps it from being cancelled while the forecast is being
+            // committed: once cancelled, nothing is committed any more
+            synchronized (mFlight) {
+                if (mFlight.isCancelled()) {
+                    abort();
+                    return null;
+                }
+                offer(END);
+                return mWriter.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Interrupting the writer rolls its transaction back
+            mAborted = true;
+            mWriter.cancel(true);
+            return 0;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Throws away the rows added so far and waits for the writer to be done with them.  Does
+     * nothing once the pipeline is finished.
+     */
+    void abort() {
+        if (!mWriter.isDone()) {
+            mAborted = true;
+            mQueue.clear();
+            offer(END);
+            try {
+                mWriter.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mWriter.cancel(true);
+            } catch (ExecutionException e) {
+                // Nothing was going to be kept anyway
+            }
+        }
+        release();
+    }
+
+    /**
+     * @return the time the writer spent writing and committing, once the last day was in
+     */
+    long getWriteNanos() {
+        return mWriteNanos;
+    }
+
+    private void release() {
+        if (!mReleased) {
+            mReleased = true;
+            mClient.release();
+        }
+    }
+
+    private void offer(ContentValues value) {
+        try {
+            while (!mQueue.offer(value, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (mWriter.isDone()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int write() throws InterruptedException {
+        // Only collected while the body is arriving, see the class comment
+        List<ContentValues> values = new ArrayList<ContentValues>();
+        ContentValues value;
+        while ((value = mQueue.take()) != END) {
+            values.add(value);
+        }
+        if (mAborted || values.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        WeatherWriter writer = mProvider.openWeatherWriter();
+        try {
+            writer.write(values.toArray(new ContentValues[values.size()]));
+            return writer.commit();
+        } finally {
+            writer.abort();
+            mWriteNanos = System.nanoTime() - start;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import android.widget.RemoteViews;
 import com.example.android.sunshine.app.DetailActivity;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.sync.ConsumerRegistry;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -23,6 +24,8 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetProvider extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // A widget just placed, or back after a reboot, needs the weather kept fresh
+        ConsumerRegistry.onDemand(context, ConsumerRegistry.CONSUMER_DETAIL_WIDGET);
         // Perform this loop procedure for each App Widget that belongs to this provider
         for (int appWidgetId : appWidgetIds) {
             RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_detail);
@@ -22,7 +22,9 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.app.sync.ConsumerRegistry;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.TodaySnapshot;
 
 /**
  * Provider for a horizontally expandable widget showing today's weather.
@@ -34,6 +36,8 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // A widget just placed, or back after a reboot, needs the weather kept fresh
+        ConsumerRegistry.onDemand(context, ConsumerRegistry.CONSUMER_TODAY_WIDGET);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
@@ -47,7 +51,13 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            // Pass today's weather along, if the sync sent it, to save querying for it again
+            Intent updateIntent = new Intent(context, TodayWidgetIntentService.class);
+            if (intent.hasExtra(TodaySnapshot.EXTRA_TODAY_SNAPSHOT)) {
+                updateIntent.putExtra(TodaySnapshot.EXTRA_TODAY_SNAPSHOT,
+                        intent.getParcelableExtra(TodaySnapshot.EXTRA_TODAY_SNAPSHOT));
+            }
+            context.startService(updateIntent);
         }
     }
 }
@@ -53,6 +53,7 @@ import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.io.InputStream;
@@ -90,6 +91,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
     private static final String LOWEST_TEMPERATURE_KEY = "lowestTemperature";
     private static final String WEATHER_ICON_KEY = "weatherIcon";
     public static final String SUNSHINE_WEATHER_PATH = "/sunshine_weather";
+    // Tells the phone the watch face is being looked at, which keeps the forecast fresher
+    private static final String WATCH_FACE_SEEN_PATH = "/sunshine_watch_face_seen";
+    private static final String TIME_KEY = "Time";
+    // Telling it more often than this would only cost battery
+    private static final long SEEN_REPORT_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
 
 
     @Override
@@ -130,6 +136,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         Paint mTextPaintTempHigh;
         Paint mTextPaintTempLow;
         boolean mAmbient;
+        long mLastSeenReportMs;
         Calendar mCalendar;
         private Bitmap weatherBitmap;
         Date date;
@@ -483,6 +490,19 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             Log.d(TAG, "Connected to Synchronized API");
             Wearable.DataApi.addListener(mGoogleApiClient, this);
             Wearable.DataApi.getDataItems(mGoogleApiClient).setResultCallback(onConnectedResultCallback);
+            // We only connect while visible
+            reportSeen();
+        }
+
+        private void reportSeen() {
+            long now = System.currentTimeMillis();
+            if (now - mLastSeenReportMs < SEEN_REPORT_INTERVAL_MS) {
+                return;
+            }
+            mLastSeenReportMs = now;
+            PutDataMapRequest mapRequest = PutDataMapRequest.create(WATCH_FACE_SEEN_PATH);
+            mapRequest.getDataMap().putLong(TIME_KEY, now);
+            Wearable.DataApi.putDataItem(mGoogleApiClient, mapRequest.asPutDataRequest());
         }
 
         @Override